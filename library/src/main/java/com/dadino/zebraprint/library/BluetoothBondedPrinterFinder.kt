@@ -16,6 +16,10 @@ class BluetoothBondedPrinterFinder(context: Context) : IPrinterFinder {
 	private val bluetoothManager: BluetoothManager by lazy { (appContext.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager) }
 
 	override suspend fun discoverPrinters(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
+		return discoverPrinterChanges(filter, useStrictFilteringForGenericDevices).accumulatePrinters()
+	}
+
+	override suspend fun discoverPrinterChanges(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
 		return flow {
 			emit(bluetoothManager.adapter.bondedDevices
 				.filter { isPrinterClass(it, useStrictFilteringForGenericDevices) }
@@ -5,9 +5,11 @@ import com.zebra.sdk.printer.discovery.DeviceFilter
 import com.zebra.sdk.printer.discovery.DiscoveredPrinter
 import com.zebra.sdk.printer.discovery.DiscoveryHandler
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.channels.onFailure
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.callbackFlow
 import timber.log.Timber
 
@@ -15,28 +17,18 @@ class BluetoothPrinterFinder(context: Context) : IPrinterFinder {
 	private val appContext: Context = context.applicationContext
 
 	override suspend fun discoverPrinters(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
+		return discoverPrinterChanges(filter, useStrictFilteringForGenericDevices).accumulatePrinters()
+	}
+
+	override suspend fun discoverPrinterChanges(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
 		return callbackFlow {
 			Timber.d("Bluetooth discovery started")
-			var printerList = listOf<Printer>()
 
 			val bluetoothDiscoveryHandler = object : DiscoveryHandler {
 				override fun foundPrinter(discoveredPrinter: DiscoveredPrinter) {
 					val printer = Printer.fromDiscoveredPrinter(discoveredPrinter, PrinterType.Bluetooth)
-					printerList = printerList.map { oldPrinter ->
-						if (oldPrinter.address == printer.address) {
-							Timber.d("Bluetooth printer updated: ${printer.friendlyName} (${printer.address})")
-							printer
-						} else {
-							oldPrinter
-						}
-					}
-
-					if (printerList.none { it.address == printer.address }) {
-						Timber.d("Bluetooth printer found: ${printer.friendlyName} (${printer.address})")
-						printerList = printerList + printer
-					}
-
-					trySend(printerList)
+					Timber.d("Bluetooth printer found: ${printer.friendlyName} (${printer.address})")
+					trySend(listOf(printer))
 						.onFailure { throwable ->
 							throwable?.printStackTrace()
 						}
@@ -57,11 +49,12 @@ class BluetoothPrinterFinder(context: Context) : IPrinterFinder {
 			}
 
 			//trySend(printerList)
-			CustomBluetoothDiscoverer.findPrinters(appContext, bluetoothDiscoveryHandler, filter, useStrictFilteringForGenericDevices)
+			val discoverer = CustomBluetoothDiscoverer.findPrinters(appContext, bluetoothDiscoveryHandler, filter, useStrictFilteringForGenericDevices)
 
 			awaitClose {
-				//TODO stop discovery
+				// Stop the inquiry as soon as a printer is picked, so its connection gets the radio to itself
+				discoverer?.cancel()
 			}
-		}
+		}.buffer(Channel.UNLIMITED)
 	}
 }
\ No newline at end of file
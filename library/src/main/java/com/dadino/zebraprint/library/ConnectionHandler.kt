@@ -6,30 +6,88 @@ import com.zebra.sdk.comm.BluetoothConnectionInsecure
 import com.zebra.sdk.comm.Connection
 import com.zebra.sdk.comm.TcpConnection
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import timber.log.Timber
+import java.util.concurrent.atomic.AtomicLong
 import java.util.regex.Pattern
 
 
-class ConnectionHandler {
-	private var printerConnection: Connection? = null
-	private var lastConnectedAddress: String? = null
+class ConnectionHandler(
+	var maxPoolSize: Int = DEFAULT_MAX_POOL_SIZE,
+	var idleTimeoutMillis: Long = DEFAULT_IDLE_TIMEOUT_MILLIS
+) {
+	private val pool = LinkedHashMap<ConnectionKey, PooledConnection>(16, 0.75f, true)
+	private val hits = AtomicLong()
+	private val misses = AtomicLong()
+	private val evictions = AtomicLong()
 	private val ipPattern = Pattern.compile("\\b(?:(?:25[0-5]|2[0-4][0-9]|1[0-9][0-9]|[1-9][0-9]|[1-9])\\.)(?:(?:25[0-5]|2[0-4][0-9]|1[0-9][0-9]|[1-9][0-9]|[0-9])\\.){2}(?:25[0-5]|2[0-4][0-9]|1[0-9][0-9]|[1-9][0-9]|[0-9])\\b")
 
-	suspend fun getConnectionToAddress(context: Context?, address: String, printerType: PrinterType?, forceReconnection: Boolean): Connection {
+	val stats: ConnectionPoolStats
+		get() = ConnectionPoolStats(hits = hits.get(), misses = misses.get(), evictions = evictions.get(), size = synchronized(pool) { pool.size })
+
+	/**
+	 * Checks out the pooled connection to [address], opening a new one if there is none, it was closed or
+	 * [forceReconnection] is set, and runs [block] with it. The connection is exclusively held by [block] and
+	 * returned to the pool afterwards, so concurrent jobs to the same printer are serialized while jobs to
+	 * different printers run in parallel.
+	 */
+	suspend fun <T> withConnection(context: Context?, address: String, printerType: PrinterType?, forceReconnection: Boolean, block: suspend (Connection) -> T): T {
 		return withContext(Dispatchers.IO) {
 			Timber.d("Connection requested to $address (type: ${printerType?.id}), force reconnection? $forceReconnection")
-			val connection = printerConnection
-			if (forceReconnection || lastConnectedAddress != address || connection == null || connection.isConnected.not()) {
-				try {
-					connection?.close()
-				} catch (e: Throwable) {
-					e.printStackTrace()
+			val entry = checkout(ConnectionKey(address, printerType))
+			try {
+				entry.lock.withLock {
+					val connection = entry.connection
+					val usableConnection = if (forceReconnection || connection == null || connection.isConnected.not()) {
+						misses.incrementAndGet()
+						closeQuietly(connection)
+						createNewConnection(context, address, printerType).also { entry.connection = it }
+					} else {
+						hits.incrementAndGet()
+						connection
+					}
+					block(usableConnection)
+				}
+			} finally {
+				checkin(entry)
+			}
+		}
+	}
+
+	private fun checkout(key: ConnectionKey): PooledConnection {
+		val evicted = arrayListOf<PooledConnection>()
+		val entry = synchronized(pool) {
+			val now = System.currentTimeMillis()
+			val entry = pool.getOrPut(key) { PooledConnection(key, lastUsed = now) }
+			entry.users++
+			val iterator = pool.values.iterator()
+			var size = pool.size
+			while (iterator.hasNext()) {
+				val candidate = iterator.next()
+				if (candidate.users > 0) continue
+				if (now - candidate.lastUsed > idleTimeoutMillis || size > maxPoolSize.coerceAtLeast(1)) {
+					iterator.remove()
+					evicted.add(candidate)
+					size--
 				}
-				createNewConnection(context, address, printerType)
-			} else {
-				connection
 			}
+			entry
+		}
+		evicted.forEach { candidate ->
+			Timber.d("Evicting pooled connection to ${candidate.key.address} (type: ${candidate.key.printerType?.id})")
+			evictions.incrementAndGet()
+			closeQuietly(candidate.connection)
+			candidate.connection = null
+		}
+		return entry
+	}
+
+	private fun checkin(entry: PooledConnection) {
+		synchronized(pool) {
+			entry.lastUsed = System.currentTimeMillis()
+			entry.users--
 		}
 	}
 
@@ -46,12 +104,18 @@ class ConnectionHandler {
 				PrinterType.Network   -> TcpConnection(address, TcpConnection.DEFAULT_ZPL_TCP_PORT)
 			}
 		}
-		lastConnectedAddress = address
-		printerConnection = connection
 		Timber.d("Created connection: $connection")
 		return connection
 	}
 
+	private fun closeQuietly(connection: Connection?) {
+		if (connection != null) PrinterInstanceCache.invalidate(connection)
+		try {
+			connection?.close()
+		} catch (e: Throwable) {
+			e.printStackTrace()
+		}
+	}
 
 	private fun isTcpAddress(address: String): Boolean {
 		return ipPattern.matcher(address).matches()
@@ -59,7 +123,32 @@ class ConnectionHandler {
 
 	suspend fun closeConnections() {
 		withContext(Dispatchers.IO) {
-			printerConnection?.close()
+			val entries = synchronized(pool) { pool.values.toList().also { pool.clear() } }
+			entries.forEach { entry ->
+				entry.lock.withLock {
+					closeQuietly(entry.connection)
+					entry.connection = null
+				}
+			}
 		}
 	}
-}
\ No newline at end of file
+
+	private data class ConnectionKey(val address: String, val printerType: PrinterType?)
+
+	private class PooledConnection(val key: ConnectionKey, var connection: Connection? = null, var lastUsed: Long) {
+		val lock = Mutex()
+		var users = 0
+	}
+
+	companion object {
+		const val DEFAULT_MAX_POOL_SIZE = 2
+		const val DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L
+	}
+}
+
+data class ConnectionPoolStats(
+	val hits: Long,
+	val misses: Long,
+	val evictions: Long,
+	val size: Int
+)
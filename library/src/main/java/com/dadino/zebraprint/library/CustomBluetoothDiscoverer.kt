@@ -30,12 +30,28 @@ class CustomBluetoothDiscoverer private constructor(
 	private var btReceiver: BtReceiver? = null
 	private var btMonitor: BtRadioMonitor? = null
 
+	@Synchronized
 	private fun unregisterTopLevelReceivers(context1: Context) {
 		if (btReceiver != null) {
 			context1.unregisterReceiver(btReceiver)
+			btReceiver = null
 		}
 		if (btMonitor != null) {
 			context1.unregisterReceiver(btMonitor)
+			btMonitor = null
+		}
+	}
+
+	/**
+	 * Stops the inquiry and unregisters the receivers, without reporting anything more to the handler.
+	 */
+	@SuppressLint("MissingPermission")
+	fun cancel() {
+		val wasRunning = synchronized(this) { btReceiver != null }
+		unregisterTopLevelReceivers(context)
+		if (wasRunning) {
+			Timber.d("Bluetooth discovery cancelled")
+			(context.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager).adapter?.cancelDiscovery()
 		}
 	}
 
@@ -94,14 +110,17 @@ class CustomBluetoothDiscoverer private constructor(
 
 		private fun processFoundPrinter(intent: Intent) {
 			val bluetoothDevice = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-			if (bluetoothDevice != null) addDeviceIfWanted(bluetoothDevice)
+			val rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE)
+			if (bluetoothDevice != null) addDeviceIfWanted(bluetoothDevice, rssi.takeIf { it != Short.MIN_VALUE }?.toInt())
 		}
 
-		private fun addDeviceIfWanted(bluetoothDevice: BluetoothDevice) {
+		private fun addDeviceIfWanted(bluetoothDevice: BluetoothDevice, rssi: Int? = null) {
 			Timber.d("Checking device: ${bluetoothDevice.name} ${bluetoothDevice.address} -> Device class: ${bluetoothDevice.bluetoothClass.deviceClass}")
 
 			if ((deviceFilter == null || deviceFilter.shouldAddPrinter(bluetoothDevice)) && isPrinterClass(bluetoothDevice, useStrictFilteringForGenericDevices)) {
-				discoveryHandler.foundPrinter(DiscoveredPrinterBluetooth(bluetoothDevice.address, bluetoothDevice.name))
+				val discoveredPrinter = DiscoveredPrinterBluetooth(bluetoothDevice.address, bluetoothDevice.name)
+				if (rssi != null) discoveredPrinter.discoveryDataMap[DISCOVERY_DATA_RSSI] = rssi.toString()
+				discoveryHandler.foundPrinter(discoveredPrinter)
 				foundDevices[bluetoothDevice.address] = bluetoothDevice
 			}
 		}
@@ -113,9 +132,12 @@ class CustomBluetoothDiscoverer private constructor(
 		private const val EXPECTED_DEVICE_CLASS = 1664
 		private const val EXPECTED_SERVICE_UUID = "00001101-0000-1000-8000-00805F9B34FB"
 
+		/**
+		 * Starts the inquiry, returning the discoverer to [cancel] it, or null if it could not start.
+		 */
 		@SuppressLint("MissingPermission")
 		@Throws(ConnectionException::class)
-		fun findPrinters(context: Context, discoveryHandler: DiscoveryHandler, deviceFilter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean) {
+		fun findPrinters(context: Context, discoveryHandler: DiscoveryHandler, deviceFilter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): CustomBluetoothDiscoverer? {
 			val bluetoothAdapter = (context.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager).adapter
 			if (bluetoothAdapter == null) {
 				discoveryHandler.discoveryError("No bluetooth radio found")
@@ -125,8 +147,9 @@ class CustomBluetoothDiscoverer private constructor(
 				if (bluetoothAdapter.isDiscovering) {
 					bluetoothAdapter.cancelDiscovery()
 				}
-				CustomBluetoothDiscoverer(context.applicationContext, discoveryHandler, deviceFilter, useStrictFilteringForGenericDevices).doBluetoothDisco()
+				return CustomBluetoothDiscoverer(context.applicationContext, discoveryHandler, deviceFilter, useStrictFilteringForGenericDevices).also { it.doBluetoothDisco() }
 			}
+			return null
 		}
 
 		fun findServices(context: Context, address: String?, discoveryHandler: ServiceDiscoveryHandler) {
@@ -0,0 +1,148 @@
+package com.dadino.zebraprint.library
+
+import android.annotation.SuppressLint
+import android.bluetooth.BluetoothManager
+import android.bluetooth.le.BluetoothLeScanner
+import android.bluetooth.le.ScanCallback
+import android.bluetooth.le.ScanResult
+import android.bluetooth.le.ScanSettings
+import android.content.Context
+import android.content.pm.PackageManager
+import android.os.Handler
+import android.os.Looper
+import com.zebra.sdk.btleComm.DiscoveredPrinterBluetoothLe
+import com.zebra.sdk.printer.discovery.DiscoveryHandler
+import timber.log.Timber
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.UUID
+
+/**
+ * BLE discovery of Zebra printers that, unlike the SDK `BluetoothLeDiscoverer`, can be stopped with [cancel]. Devices
+ * are recognized by the Zebra service UUID in their advertisement, and reported with their signal strength.
+ */
+@SuppressLint("MissingPermission")
+class CustomBluetoothLeDiscoverer private constructor(
+	private val context: Context,
+	private val scanner: BluetoothLeScanner,
+	private val discoveryHandler: DiscoveryHandler
+) {
+	private val handler = Handler(Looper.getMainLooper())
+	private val foundAddresses: MutableSet<String> = hashSetOf()
+	private var scanning = false
+
+	private val callback = object : ScanCallback() {
+		override fun onScanResult(callbackType: Int, result: ScanResult) {
+			processResult(result)
+		}
+
+		override fun onBatchScanResults(results: MutableList<ScanResult>) {
+			results.forEach { processResult(it) }
+		}
+
+		override fun onScanFailed(errorCode: Int) {
+			Timber.e("BLE scan failed with error $errorCode")
+			if (stopScan()) discoveryHandler.discoveryError("BLE scan failed with error $errorCode")
+		}
+	}
+
+	private val timeout = Runnable {
+		if (stopScan()) discoveryHandler.discoveryFinished()
+	}
+
+	private fun start(timeoutMillis: Long) {
+		synchronized(this) { scanning = true }
+		val settings = ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build()
+		scanner.startScan(null, settings, callback)
+		handler.postDelayed(timeout, timeoutMillis)
+	}
+
+	/**
+	 * Stops the scan without reporting anything more to the handler.
+	 */
+	fun cancel() {
+		if (stopScan()) Timber.d("BLE discovery cancelled")
+	}
+
+	/**
+	 * Returns true only for the call that actually stopped the scan.
+	 */
+	private fun stopScan(): Boolean {
+		synchronized(this) {
+			if (scanning.not()) return false
+			scanning = false
+		}
+		handler.removeCallbacks(timeout)
+		try {
+			scanner.stopScan(callback)
+		} catch (e: Exception) {
+			e.printStackTrace()
+		}
+		return true
+	}
+
+	private fun processResult(result: ScanResult) {
+		val device = result.device ?: return
+		val record = result.scanRecord?.bytes ?: return
+		synchronized(this) {
+			if (scanning.not() || device.address in foundAddresses || hasZebraServiceUuid(record).not()) return
+			foundAddresses.add(device.address)
+		}
+		val discoveredPrinter = DiscoveredPrinterBluetoothLe(device.address, device.name, context)
+		discoveredPrinter.discoveryDataMap[DISCOVERY_DATA_RSSI] = result.rssi.toString()
+		discoveryHandler.foundPrinter(discoveredPrinter)
+	}
+
+	companion object {
+		const val DEFAULT_TIMEOUT_MILLIS = 30_000L
+		private val ZEBRA_SERVICE_UUID: UUID = UUID.fromString("0000fe79-c570-11e3-9507-0002a5d5c51b")
+		private val ZEBRA_SERVICE_SHORT_UUID = (ZEBRA_SERVICE_UUID.mostSignificantBits ushr 32).toInt()
+
+		/**
+		 * Starts a scan reporting to [discoveryHandler] until [timeoutMillis] expires or the returned discoverer is
+		 * cancelled. Returns null if the scan could not start, after reporting the error to [discoveryHandler].
+		 */
+		fun findPrinters(context: Context, discoveryHandler: DiscoveryHandler, timeoutMillis: Long = DEFAULT_TIMEOUT_MILLIS): CustomBluetoothLeDiscoverer? {
+			val bluetoothAdapter = (context.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager).adapter
+			val scanner = bluetoothAdapter?.takeIf { it.isEnabled }?.bluetoothLeScanner
+			when {
+				context.packageManager.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE).not() -> discoveryHandler.discoveryError("No bluetooth low energy radio found")
+				bluetoothAdapter == null                                                            -> discoveryHandler.discoveryError("No bluetooth radio found")
+				scanner == null                                                                     -> discoveryHandler.discoveryError("Bluetooth radio is currently disabled")
+				else                                                                                -> {
+					if (bluetoothAdapter.isDiscovering) bluetoothAdapter.cancelDiscovery()
+					return CustomBluetoothLeDiscoverer(context.applicationContext, scanner, discoveryHandler).also { it.start(timeoutMillis) }
+				}
+			}
+			return null
+		}
+
+		/**
+		 * Whether the advertisement lists the Zebra printer service, in its 16 or 128 bit form. Like the SDK, 16 bit
+		 * UUIDs are expanded on the Zebra base UUID rather than the Bluetooth one.
+		 */
+		private fun hasZebraServiceUuid(record: ByteArray): Boolean {
+			val buffer = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN)
+			while (buffer.remaining() > 2) {
+				val length = buffer.get().toInt() and 0xFF
+				if (length == 0 || length > buffer.remaining()) break
+				val type = buffer.get().toInt() and 0xFF
+				var dataLength = length - 1
+				when (type) {
+					0x02, 0x03 -> while (dataLength >= 2) {
+						if ((buffer.short.toInt() and 0xFFFF) == ZEBRA_SERVICE_SHORT_UUID) return true
+						dataLength -= 2
+					}
+					0x06, 0x07 -> while (dataLength >= 16) {
+						val leastSignificantBits = buffer.long
+						val mostSignificantBits = buffer.long
+						if (UUID(mostSignificantBits, leastSignificantBits) == ZEBRA_SERVICE_UUID) return true
+						dataLength -= 16
+					}
+				}
+				buffer.position(buffer.position() + dataLength)
+			}
+			return false
+		}
+	}
+}
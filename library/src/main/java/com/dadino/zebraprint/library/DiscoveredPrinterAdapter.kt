@@ -9,9 +9,13 @@ import android.widget.ImageView
 import android.widget.TextView
 
 
-class DiscoveredPrinterAdapter(context: Context, data: List<Printer>, val callback: (Printer) -> Unit) : ArrayAdapter<Printer>(context, R.layout.item_discovered_printer, data) {
+class DiscoveredPrinterAdapter private constructor(context: Context, val callback: (Printer) -> Unit, private val printers: ArrayList<Printer>) : ArrayAdapter<Printer>(context, R.layout.item_discovered_printer, printers) {
+
+	constructor(context: Context, data: List<Printer>, callback: (Printer) -> Unit) : this(context, callback, ArrayList(data))
 
 	private val inflater = LayoutInflater.from(context)
+	private val positions = hashMapOf<String, Int>()
+	private var synced = false
 
 	private class ViewHolder {
 		var root: View? = null
@@ -46,12 +50,67 @@ class DiscoveredPrinterAdapter(context: Context, data: List<Printer>, val callba
 			viewHolder.printerName?.text = printer.friendlyName
 			viewHolder.printerAddress?.text = printer.address
 			viewHolder.printerTypeIcon?.setImageResource(printer.type.icon)
+			viewHolder.root?.alpha = if (printer.isStale) STALE_PRINTER_ALPHA else 1f
 			viewHolder.root?.setOnClickListener { callback(printer) }
 		}
 		return returnView
 	}
 
 	override fun getItemId(position: Int): Long {
-		return getItem(position)?.let { "${it.address}-${it.typeId}" }?.hashCode()?.toLong() ?: 0
+		return getItem(position)?.key?.hashCode()?.toLong() ?: 0
+	}
+
+	/**
+	 * Applies the changes of [progress] to the list, falling back to replacing it with the progress snapshot the first
+	 * time or if the two went out of sync. The list view is only notified if something changed.
+	 */
+	fun update(progress: PrinterDiscoveryProgress) {
+		val changed = if (synced && applyChanges(progress.changes) && printers.size == progress.printerList.size) {
+			progress.changes.isNotEmpty()
+		} else {
+			printers.clear()
+			printers.addAll(progress.printerList)
+			reindex()
+			synced = true
+			true
+		}
+		if (changed) notifyDataSetChanged()
+	}
+
+	private fun applyChanges(changes: List<PrinterChange>): Boolean {
+		changes.forEach { change ->
+			val printer = change.printer
+			val position = positions[printer.key]
+			when (change) {
+				is PrinterChange.Added   -> {
+					if (position != null) return false
+					positions[printer.key] = printers.size
+					printers.add(printer)
+				}
+				is PrinterChange.Updated -> {
+					if (position == null) return false
+					printers[position] = printer
+				}
+				is PrinterChange.Removed -> {
+					if (position == null) return false
+					printers.removeAt(position)
+					positions.remove(printer.key)
+					reindex()
+				}
+			}
+		}
+		return true
+	}
+
+	private fun reindex() {
+		positions.clear()
+		printers.forEachIndexed { index, printer -> positions[printer.key] = index }
+	}
+
+	private val Printer.key: String
+		get() = "$address-$typeId"
+
+	companion object {
+		private const val STALE_PRINTER_ALPHA = 0.5f
 	}
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import com.dadino.zebraprint.library.ProtoDiscoveredPrintersOuterClass.ProtoDiscoveredPrinter
+import kotlinx.coroutines.flow.first
+
+/**
+ * Printers found by previous discoveries, persisted in the `discovered_printers.pb` DataStore with when they were last
+ * seen, their last signal strength and how many times they were selected, so a new discovery can show them before the
+ * radios report anything.
+ *
+ * At most [maxSize] printers are kept, dropping the least selected and least recently seen ones; printers not seen for
+ * [maxAgeMillis] are forgotten.
+ */
+class DiscoveredPrinterCache(
+	context: Context,
+	var maxSize: Int = DEFAULT_MAX_SIZE,
+	var maxAgeMillis: Long = DEFAULT_MAX_AGE_MILLIS
+) {
+	private val dataStore = context.applicationContext.discoveredPrintersDataStore
+
+	/**
+	 * The cached printers of [types], marked as stale, the most selected and most recently seen first.
+	 */
+	suspend fun load(types: Set<PrinterType>): List<Printer> {
+		val now = System.currentTimeMillis()
+		return dataStore.data.first().printersList
+			.filter { now - it.lastSeen <= maxAgeMillis && PrinterType.fromId(it.typeId) in types }
+			.sortedWith(ORDER)
+			.map { cached ->
+				Printer(
+					address = cached.address,
+					friendlyName = cached.friendlyName.ifEmpty { null },
+					typeId = cached.typeId,
+					rssi = if (cached.hasLastRssi()) cached.lastRssi else null,
+					isStale = true
+				)
+			}
+	}
+
+	/**
+	 * Marks [printers] as seen now, updating their name and signal strength.
+	 */
+	suspend fun recordSeen(printers: Collection<Printer>) {
+		if (printers.isEmpty()) return
+		val now = System.currentTimeMillis()
+		update { cached ->
+			printers.forEach { printer ->
+				val entry = (cached[printer.key] ?: ProtoDiscoveredPrinter.newBuilder().setAddress(printer.address).setTypeId(printer.typeId).build()).toBuilder()
+					.setLastSeen(now)
+				printer.friendlyName?.let { entry.setFriendlyName(it) }
+				printer.rssi?.let { entry.setLastRssi(it) }
+				cached[printer.key] = entry.build()
+			}
+		}
+	}
+
+	/**
+	 * Counts a selection of [printer], which keeps it in the cache longer than printers that were only seen.
+	 */
+	suspend fun recordSelected(printer: Printer) {
+		val now = System.currentTimeMillis()
+		update { cached ->
+			val entry = (cached[printer.key] ?: ProtoDiscoveredPrinter.newBuilder().setAddress(printer.address).setTypeId(printer.typeId).build()).toBuilder()
+			printer.friendlyName?.let { entry.setFriendlyName(it) }
+			cached[printer.key] = entry.setLastSeen(now).setSuccessCount(entry.successCount + 1).build()
+		}
+	}
+
+	suspend fun clear() {
+		dataStore.updateData { it.toBuilder().clearPrinters().build() }
+	}
+
+	private suspend fun update(block: (MutableMap<String, ProtoDiscoveredPrinter>) -> Unit) {
+		dataStore.updateData { discovered ->
+			val now = System.currentTimeMillis()
+			val cached = discovered.printersList.associateByTo(LinkedHashMap()) { "${it.address}-${it.typeId}" }
+			block(cached)
+			val kept = cached.values
+				.filter { now - it.lastSeen <= maxAgeMillis }
+				.sortedWith(ORDER)
+				.take(maxSize.coerceAtLeast(0))
+			discovered.toBuilder().clearPrinters().addAllPrinters(kept).build()
+		}
+	}
+
+	private val Printer.key: String
+		get() = "$address-$typeId"
+
+	companion object {
+		const val DEFAULT_MAX_SIZE = 32
+		const val DEFAULT_MAX_AGE_MILLIS = 30 * 24 * 60 * 60 * 1000L
+		private val ORDER = compareByDescending<ProtoDiscoveredPrinter> { it.successCount }.thenByDescending { it.lastSeen }
+	}
+}
@@ -0,0 +1,33 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.DataStore
+import androidx.datastore.core.Serializer
+import androidx.datastore.dataStore
+import com.dadino.zebraprint.library.ProtoDiscoveredPrintersOuterClass.ProtoDiscoveredPrinters
+import com.google.protobuf.InvalidProtocolBufferException
+import java.io.InputStream
+import java.io.OutputStream
+
+object DiscoveredPrintersSerializer : Serializer<ProtoDiscoveredPrinters> {
+	override val defaultValue: ProtoDiscoveredPrinters = ProtoDiscoveredPrinters.getDefaultInstance()
+
+	override suspend fun readFrom(input: InputStream): ProtoDiscoveredPrinters {
+		try {
+			return ProtoDiscoveredPrinters.parseFrom(input)
+		} catch (exception: InvalidProtocolBufferException) {
+			throw CorruptionException("Cannot read proto.", exception)
+		}
+	}
+
+	override suspend fun writeTo(
+		t: ProtoDiscoveredPrinters,
+		output: OutputStream
+	) = t.writeTo(output)
+}
+
+val Context.discoveredPrintersDataStore: DataStore<ProtoDiscoveredPrinters> by dataStore(
+	fileName = "discovered_printers.pb",
+	serializer = DiscoveredPrintersSerializer
+)
@@ -11,5 +11,6 @@ class PrinterDiscoveryCancelledException() : PrintLibraryException(R.string.erro
 class NoPrinterFoundException() : PrintLibraryException(R.string.error_no_printer_found.asFormattable())
 class PrinterNotReadyToPrintException(val status: PrinterState) : PrintLibraryException(R.string.error_printer_not_ready_to_print.asFormattable())
 class PermissionsRequiredException(val permissionList: List<String>) : PrintLibraryException(R.string.error_permissions_not_granted.asFormattable())
+class TemplateNotRegisteredException(val templateId: String) : PrintLibraryException(R.string.error_template_not_registered.asFormattable(), message = "Template $templateId not registered. Remember to call zebraPrint.registerTemplate(templateId, zpl) before printing it")
 
 open class PrintLibraryException(val contextFormattable: ContextFormattable, message: String? = null) : RuntimeException(message)
\ No newline at end of file
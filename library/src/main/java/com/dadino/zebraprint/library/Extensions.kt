@@ -1,5 +1,42 @@
 package com.dadino.zebraprint.library
 
+import com.dadino.zebraprint.library.ble.BluetoothLeConnection
+import com.zebra.sdk.comm.BluetoothConnection
+import com.zebra.sdk.comm.Connection
+import com.zebra.sdk.comm.TcpConnection
 import com.zebra.sdk.printer.discovery.DiscoveredPrinter
+import timber.log.Timber
 
 fun DiscoveredPrinter.getFriendlyName(): String? = discoveryDataMap["FRIENDLY_NAME"]
+
+fun DiscoveredPrinter.getRssi(): Int? = discoveryDataMap[DISCOVERY_DATA_RSSI]?.toIntOrNull()
+
+/**
+ * Key of the signal strength, in dBm, in the discovery data of the printers found over bluetooth.
+ */
+const val DISCOVERY_DATA_RSSI = "RSSI"
+
+/**
+ * Address of the printer this connection points to, as used by [Printer.address], or null for unknown connection types.
+ */
+val Connection.printerAddress: String?
+	get() = when (this) {
+		is TcpConnection         -> address
+		is BluetoothConnection   -> getMACAddress()
+		is BluetoothLeConnection -> getMACAddress()
+		else                     -> null
+	}
+
+/**
+ * Runs [block] as a single print job, however many writes it makes. On BLE the link keeps the streaming priority
+ * until the whole job is written, and the statistics of all its writes are logged at the end.
+ */
+internal inline fun <T> Connection.printJob(block: () -> T): T {
+	val bleConnection = this as? BluetoothLeConnection ?: return block()
+	bleConnection.beginJob()
+	try {
+		return block()
+	} finally {
+		if (bleConnection.endJob()) Timber.d("BLE job written: ${bleConnection.lastJobWriteStatistics} over ${bleConnection.connectionStats}")
+	}
+}
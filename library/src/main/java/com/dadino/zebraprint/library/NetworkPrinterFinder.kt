@@ -6,43 +6,39 @@ import com.zebra.sdk.printer.discovery.DiscoveredPrinter
 import com.zebra.sdk.printer.discovery.DiscoveryHandler
 import com.zebra.sdk.printer.discovery.NetworkDiscoverer
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.channels.onFailure
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.callbackFlow
 import timber.log.Timber
+import java.util.concurrent.atomic.AtomicBoolean
 
 class NetworkPrinterFinder(context: Context) : IPrinterFinder {
 
 	override suspend fun discoverPrinters(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
+		return discoverPrinterChanges(filter, useStrictFilteringForGenericDevices).accumulatePrinters()
+	}
+
+	override suspend fun discoverPrinterChanges(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
 		return callbackFlow {
 			Timber.d("Network discovery started")
-			var printerList = listOf<Printer>()
+			val closed = AtomicBoolean(false)
 
 			val networkDiscoveryHandler = object : DiscoveryHandler {
 				override fun foundPrinter(discoveredPrinter: DiscoveredPrinter) {
+					if (closed.get()) return
 					val printer = Printer.fromDiscoveredPrinter(discoveredPrinter, PrinterType.Network)
-					printerList = printerList.map { oldPrinter ->
-						if (oldPrinter.address == printer.address) {
-							Timber.d("Network printer updated: ${printer.friendlyName} (${printer.address})")
-							printer
-						} else {
-							oldPrinter
-						}
-					}
-
-					if (printerList.none { it.address == printer.address }) {
-						Timber.d("Network printer found: ${printer.friendlyName} (${printer.address})")
-						printerList = printerList + printer
-					}
-
-					trySend(printerList)
+					Timber.d("Network printer found: ${printer.friendlyName} (${printer.address})")
+					trySend(listOf(printer))
 						.onFailure { throwable ->
 							throwable?.printStackTrace()
 						}
 				}
 
 				override fun discoveryFinished() {
+					if (closed.get()) return
 					Timber.d("Network discovery finished")
 					channel.close(
 						//if (printerList.isEmpty()) NoPrinterFoundException() else
@@ -51,6 +47,7 @@ class NetworkPrinterFinder(context: Context) : IPrinterFinder {
 				}
 
 				override fun discoveryError(error: String) {
+					if (closed.get()) return
 					Timber.e("Network discovery error: $error")
 					cancel(error, RuntimeException(error))
 				}
@@ -60,8 +57,10 @@ class NetworkPrinterFinder(context: Context) : IPrinterFinder {
 			NetworkDiscoverer.findPrinters(networkDiscoveryHandler)
 
 			awaitClose {
-				//TODO stop discovery
+				// The SDK multicast cannot be aborted: it only sends a few packets and waits for the replies on its own
+				// thread, which ends by itself; just stop listening to it
+				closed.set(true)
 			}
-		}
+		}.buffer(Channel.UNLIMITED)
 	}
 }
\ No newline at end of file
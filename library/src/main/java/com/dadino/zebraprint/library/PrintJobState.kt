@@ -0,0 +1,17 @@
+package com.dadino.zebraprint.library
+
+sealed class PrintJobState(val jobId: String) {
+	class Queued(jobId: String) : PrintJobState(jobId)
+	class Printing(jobId: String, val attempt: Int) : PrintJobState(jobId)
+	class Retrying(jobId: String, val attempt: Int, val nextAttemptAt: Long, val error: Throwable) : PrintJobState(jobId)
+	class Completed(jobId: String, val response: PrintResponse) : PrintJobState(jobId)
+	class Failed(jobId: String, val error: Throwable) : PrintJobState(jobId)
+	class Cancelled(jobId: String) : PrintJobState(jobId)
+
+	val isFinal: Boolean
+		get() = this is Completed || this is Failed || this is Cancelled
+
+	override fun toString(): String {
+		return "${javaClass.simpleName}(jobId=$jobId)"
+	}
+}
@@ -0,0 +1,33 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.DataStore
+import androidx.datastore.core.Serializer
+import androidx.datastore.dataStore
+import com.dadino.zebraprint.library.ProtoPrintQueueOuterClass.ProtoPrintQueue
+import com.google.protobuf.InvalidProtocolBufferException
+import java.io.InputStream
+import java.io.OutputStream
+
+object PrintQueueSerializer : Serializer<ProtoPrintQueue> {
+	override val defaultValue: ProtoPrintQueue = ProtoPrintQueue.getDefaultInstance()
+
+	override suspend fun readFrom(input: InputStream): ProtoPrintQueue {
+		try {
+			return ProtoPrintQueue.parseFrom(input)
+		} catch (exception: InvalidProtocolBufferException) {
+			throw CorruptionException("Cannot read proto.", exception)
+		}
+	}
+
+	override suspend fun writeTo(
+		t: ProtoPrintQueue,
+		output: OutputStream
+	) = t.writeTo(output)
+}
+
+val Context.printQueueDataStore: DataStore<ProtoPrintQueue> by dataStore(
+	fileName = "print_queue.pb",
+	serializer = PrintQueueSerializer
+)
@@ -1,6 +1,14 @@
 package com.dadino.zebraprint.library
 
 
-sealed class PrintResult{
+/**
+ * Outcome of a single label of a batch, [index] being its position in the submitted payloads.
+ */
+sealed class PrintResult(val index: Int) {
+	class Printed(index: Int, val response: PrintResponse) : PrintResult(index)
+	class Failed(index: Int, val error: Throwable) : PrintResult(index)
 
+	override fun toString(): String {
+		return "${javaClass.simpleName}(index=$index)"
+	}
 }
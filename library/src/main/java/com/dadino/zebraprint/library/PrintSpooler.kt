@@ -0,0 +1,276 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import com.dadino.zebraprint.library.ProtoPrintQueueOuterClass.ProtoPrintJob
+import com.dadino.zebraprint.library.ProtoPrintQueueOuterClass.ProtoPrintQueue
+import com.google.protobuf.ByteString
+import com.zebra.sdk.comm.Connection
+import com.zebra.sdk.comm.ConnectionException
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.mapNotNull
+import kotlinx.coroutines.flow.transformWhile
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
+import timber.log.Timber
+import java.io.IOException
+import java.util.UUID
+import kotlin.math.min
+
+/**
+ * Disk-backed FIFO of print jobs. [enqueue] only appends the job to the `print_queue.pb` DataStore, while a
+ * background coroutine drains the queue in order through [printAction], retrying failed jobs with an exponential
+ * backoff. A job is removed from disk only once it has been printed or has definitely failed, so jobs queued
+ * before the process died are printed when the spooler is started again (a job interrupted while being written
+ * may be printed twice).
+ *
+ * Jobs are printed strictly in order: a job waiting for its next attempt holds back the ones queued after it, so
+ * labels never come out shuffled.
+ *
+ * The spooler remembers the latest state of every job it handled (the last [MAX_FINISHED_STATES] finished ones
+ * included), and never publishes a state for a job after its final one.
+ */
+class PrintSpooler(context: Context, private val printAction: suspend (suspend (Connection) -> Unit) -> Result<PrintResponse>) {
+	private val dataStore = context.applicationContext.printQueueDataStore
+	private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+	private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+	private val states = MutableSharedFlow<PrintJobState>(extraBufferCapacity = STATE_BUFFER_SIZE, onBufferOverflow = BufferOverflow.DROP_OLDEST)
+	private val latestStates = MutableStateFlow<Map<String, PrintJobState>>(emptyMap())
+	private val statesLock = Any()
+	private val jobLock = Mutex()
+	private var drainJob: Job? = null
+
+	/**
+	 * Id of the job being written to the printer, which [cancel] must leave alone. Only changed holding [jobLock].
+	 */
+	@Volatile
+	private var printingJobId: String? = null
+
+	var maxAttempts: Int = DEFAULT_MAX_ATTEMPTS
+	var initialBackoffMillis: Long = DEFAULT_INITIAL_BACKOFF_MILLIS
+	var maxBackoffMillis: Long = DEFAULT_MAX_BACKOFF_MILLIS
+
+	/**
+	 * State changes of every job handled by the spooler. Only changes happening while collecting are received.
+	 */
+	val jobStates: Flow<PrintJobState> = states.asSharedFlow()
+
+	/**
+	 * States of a single job, starting from its latest one and completing after its final state, so a collector
+	 * started after the job finished still receives its outcome. States are conflated: a slow collector only sees
+	 * the latest one, but always sees the final one.
+	 */
+	fun jobStates(jobId: String): Flow<PrintJobState> {
+		return latestStates.mapNotNull { it[jobId] }
+			.distinctUntilChanged()
+			.transformWhile { state ->
+				emit(state)
+				state.isFinal.not()
+			}
+	}
+
+	@Synchronized
+	fun start() {
+		if (drainJob?.isActive == true) return
+		drainJob = scope.launch { drain() }
+	}
+
+	@Synchronized
+	fun stop() {
+		drainJob?.cancel()
+		drainJob = null
+	}
+
+	suspend fun enqueue(payload: ByteArray): String {
+		return enqueue { it.setPayload(ByteString.copyFrom(payload)) }
+	}
+
+	suspend fun enqueue(templateName: String, data: Map<Int, String>): String {
+		return enqueue { it.setTemplateName(templateName).putAllTemplateData(data) }
+	}
+
+	private suspend fun enqueue(fill: (ProtoPrintJob.Builder) -> ProtoPrintJob.Builder): String {
+		val id = UUID.randomUUID().toString()
+		val now = System.currentTimeMillis()
+		val job = fill(ProtoPrintJob.newBuilder().setId(id).setCreatedAt(now).setNextAttemptAt(now)).build()
+		dataStore.updateData { queue -> queue.toBuilder().addJobs(job).build() }
+		Timber.d("Print job $id queued")
+		publish(PrintJobState.Queued(id))
+		wakeUp.trySend(Unit)
+		return id
+	}
+
+	/**
+	 * Removes a job from the queue. A job being written to the printer cannot be stopped, so it is left alone; a job
+	 * waiting for its next attempt can still be cancelled.
+	 *
+	 * @return false if the job is being printed or was not in the queue anymore
+	 */
+	suspend fun cancel(jobId: String): Boolean {
+		return jobLock.withLock {
+			if (jobId == printingJobId) return@withLock false
+			var removed = false
+			dataStore.updateData { queue ->
+				val index = queue.jobsList.indexOfFirst { it.id == jobId }
+				removed = index >= 0
+				if (removed) queue.toBuilder().removeJobs(index).build() else queue
+			}
+			if (removed) {
+				publish(PrintJobState.Cancelled(jobId))
+				wakeUp.trySend(Unit)
+			}
+			removed
+		}
+	}
+
+	suspend fun pendingJobIds(): List<String> {
+		return dataStore.data.first().jobsList.map { it.id }
+	}
+
+	private suspend fun drain() {
+		while (scope.isActive) {
+			val job = dataStore.data.first().jobsList.firstOrNull()
+			if (job == null) {
+				wakeUp.receive()
+				continue
+			}
+			val delay = job.nextAttemptAt - System.currentTimeMillis()
+			if (delay > 0) {
+				withTimeoutOrNull(delay) { wakeUp.receive() }
+				continue
+			}
+			process(job)
+		}
+	}
+
+	private suspend fun process(job: ProtoPrintJob) {
+		// The job may have been cancelled since it was read from disk: claim it only if it is still queued
+		val claimed = jobLock.withLock {
+			val queued = dataStore.data.first().jobsList.any { it.id == job.id }
+			if (queued) printingJobId = job.id
+			queued
+		}
+		if (claimed.not()) return
+		try {
+			attempt(job)
+		} finally {
+			jobLock.withLock { printingJobId = null }
+		}
+	}
+
+	private suspend fun attempt(job: ProtoPrintJob) {
+		val attempt = job.attempts + 1
+		Timber.d("Printing job ${job.id}, attempt $attempt")
+		publish(PrintJobState.Printing(job.id, attempt))
+		val result = try {
+			printAction(job.toPrintAction())
+		} catch (e: CancellationException) {
+			throw e
+		} catch (e: Exception) {
+			Result.failure(e)
+		}
+		val error = result.exceptionOrNull()
+		when {
+			error == null                               -> {
+				removeJob(job.id)
+				publish(PrintJobState.Completed(job.id, result.getOrThrow()))
+			}
+			attempt < maxAttempts && isRetryable(error) -> {
+				val nextAttemptAt = System.currentTimeMillis() + backoffFor(attempt)
+				Timber.w(error, "Print job ${job.id} failed, retrying at $nextAttemptAt")
+				updateJob(job.id) { it.toBuilder().setAttempts(attempt).setNextAttemptAt(nextAttemptAt).build() }
+				publish(PrintJobState.Retrying(job.id, attempt, nextAttemptAt, error))
+			}
+			else                                        -> {
+				Timber.e(error, "Print job ${job.id} failed")
+				removeJob(job.id)
+				publish(PrintJobState.Failed(job.id, error))
+			}
+		}
+	}
+
+	/**
+	 * Records [state] as the latest of its job and emits it, unless the job already reached a final state. Only the
+	 * last [MAX_FINISHED_STATES] finished jobs are remembered.
+	 */
+	private fun publish(state: PrintJobState) {
+		synchronized(statesLock) {
+			val current = latestStates.value
+			if (current[state.jobId]?.isFinal == true) return
+			val next = LinkedHashMap(current)
+			// Re-inserting keeps the map ordered by last update, oldest first
+			next.remove(state.jobId)
+			next[state.jobId] = state
+			var finished = next.values.count { it.isFinal }
+			val iterator = next.values.iterator()
+			while (finished > MAX_FINISHED_STATES && iterator.hasNext()) {
+				if (iterator.next().isFinal) {
+					iterator.remove()
+					finished--
+				}
+			}
+			latestStates.value = next
+			states.tryEmit(state)
+		}
+	}
+
+	private fun ProtoPrintJob.toPrintAction(): suspend (Connection) -> Unit {
+		return if (templateName.isNotEmpty()) {
+			val data = templateDataMap.toMap()
+			val action: suspend (Connection) -> Unit = { connection -> ZplPrinter.printZPLTemplate(connection, templateName, data) }
+			action
+		} else {
+			val bytes = payload.toByteArray()
+			val action: suspend (Connection) -> Unit = { connection -> ZplPrinter.printByteArray(connection, bytes) }
+			action
+		}
+	}
+
+	private fun isRetryable(error: Throwable): Boolean {
+		return error is ConnectionException
+				|| error is IOException
+				|| error is PrinterNotReachableException
+				|| error is PrinterNotReadyToPrintException
+	}
+
+	private fun backoffFor(attempt: Int): Long {
+		val factor = 1L shl min(attempt - 1, 20)
+		return min(initialBackoffMillis * factor, maxBackoffMillis)
+	}
+
+	private suspend fun removeJob(jobId: String) {
+		dataStore.updateData { queue ->
+			val index = queue.jobsList.indexOfFirst { it.id == jobId }
+			if (index >= 0) queue.toBuilder().removeJobs(index).build() else queue
+		}
+	}
+
+	private suspend fun updateJob(jobId: String, update: (ProtoPrintJob) -> ProtoPrintJob) {
+		dataStore.updateData { queue: ProtoPrintQueue ->
+			val index = queue.jobsList.indexOfFirst { it.id == jobId }
+			if (index >= 0) queue.toBuilder().setJobs(index, update(queue.getJobs(index))).build() else queue
+		}
+	}
+
+	companion object {
+		const val DEFAULT_MAX_ATTEMPTS = 5
+		const val DEFAULT_INITIAL_BACKOFF_MILLIS = 2000L
+		const val DEFAULT_MAX_BACKOFF_MILLIS = 60_000L
+		const val MAX_FINISHED_STATES = 64
+		private const val STATE_BUFFER_SIZE = 64
+	}
+}
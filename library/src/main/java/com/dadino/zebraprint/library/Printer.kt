@@ -4,12 +4,18 @@ import androidx.annotation.DrawableRes
 import com.zebra.sdk.printer.discovery.DiscoveredPrinter
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.Transient
 
 @Serializable
 data class Printer(
 	@SerialName("address") val address: String,
 	@SerialName("name") val friendlyName: String?,
-	@SerialName("typeId") val typeId: String
+	@SerialName("typeId") val typeId: String,
+	@Transient val rssi: Int? = null,
+	/**
+	 * Set on printers remembered from previous discoveries and not seen again yet by the current one.
+	 */
+	@Transient val isStale: Boolean = false
 ) {
 	val type: PrinterType
 		get() {
@@ -21,7 +27,8 @@ data class Printer(
 			return Printer(
 				address = discoveredPrinter.address,
 				friendlyName = discoveredPrinter.getFriendlyName(),
-				typeId = printerType.id
+				typeId = printerType.id,
+				rssi = discoveredPrinter.getRssi()
 			)
 		}
 	}
@@ -1,9 +1,80 @@
 package com.dadino.zebraprint.library
 
+import android.os.SystemClock
 import com.dadino.quickstart3.contextformattable.ContextFormattable
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.ChannelResult
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.produceIn
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
 
 
+/**
+ * [printerList] is an immutable snapshot of the printers found so far; [changes] lists what changed since the previous
+ * progress, so consumers can update incrementally.
+ */
 data class PrinterDiscoveryProgress(
 	val printerList: List<Printer>,
-	val message: ContextFormattable?
-)
+	val message: ContextFormattable?,
+	val completedTransports: Set<DiscoveryTransport> = emptySet(),
+	val changes: List<PrinterChange> = emptyList()
+) {
+	/**
+	 * Merges [next] into this progress: the latest list, message and transports, with the changes of both.
+	 */
+	fun mergeWith(next: PrinterDiscoveryProgress): PrinterDiscoveryProgress {
+		return next.copy(changes = changes + next.changes)
+	}
+}
+
+/**
+ * Emits at most one progress every [intervalMillis]: the first one right away, the following ones merged together
+ * with [PrinterDiscoveryProgress.mergeWith] until the interval has passed, so no change is lost. The last pending
+ * progress is emitted when the discovery ends, even when it fails. [clock] reads the current time in milliseconds.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+internal fun Flow<PrinterDiscoveryProgress>.throttle(intervalMillis: Long, clock: () -> Long = SystemClock::elapsedRealtime): Flow<PrinterDiscoveryProgress> {
+	return flow {
+		coroutineScope {
+			// A failing upstream would cancel this scope and drop the pending progress, so its error is rethrown after it
+			var error: Throwable? = null
+			val upstream = this@throttle.catch { error = it }.produceIn(this)
+			var pending: PrinterDiscoveryProgress? = null
+			var nextSendAt = 0L
+			while (true) {
+				val waitMillis = nextSendAt - clock()
+				// Unlike a receive cancelled by a timeout, a select takes a progress from the channel only when it returns it
+				val received: ChannelResult<PrinterDiscoveryProgress>? = select {
+					upstream.onReceiveCatching { it }
+					if (pending != null) onTimeout(waitMillis.coerceAtLeast(0)) { null }
+				}
+
+				if (received != null && received.isClosed) {
+					pending?.let { emit(it) }
+					error?.let { throw it }
+					break
+				}
+				received?.getOrNull()?.let { progress -> pending = pending?.mergeWith(progress) ?: progress }
+
+				val now = clock()
+				val toSend = pending
+				if (toSend != null && now >= nextSendAt) {
+					emit(toSend)
+					pending = null
+					nextSendAt = now + intervalMillis
+				}
+			}
+		}
+	}
+}
+
+enum class DiscoveryTransport {
+	PAIRED,
+	BLUETOOTH,
+	BLE,
+	NETWORK
+}
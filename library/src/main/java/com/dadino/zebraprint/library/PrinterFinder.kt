@@ -3,12 +3,104 @@ package com.dadino.zebraprint.library
 import android.content.Context
 import com.dadino.quickstart3.contextformattable.asFormattable
 import com.zebra.sdk.printer.discovery.DeviceFilter
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.*
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import timber.log.Timber
+import java.util.concurrent.atomic.AtomicReference
 
 
 interface IPrinterFinder {
+	/**
+	 * Emits the whole list of printers found so far every time it changes.
+	 */
 	suspend fun discoverPrinters(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>>
+
+	/**
+	 * Emits the printers found or updated since the previous emission, not the whole list. The default implementation
+	 * derives them from the lists of [discoverPrinters]; the library finders emit them directly.
+	 */
+	suspend fun discoverPrinterChanges(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
+		val printers = discoverPrinters(filter, useStrictFilteringForGenericDevices)
+		return flow {
+			val index = PrinterIndex()
+			printers.collect { printerList ->
+				val changed = index.putAll(printerList).map { it.printer }
+				if (changed.isNotEmpty()) emit(changed)
+			}
+		}
+	}
+}
+
+/**
+ * Turns the changes emitted by [IPrinterFinder.discoverPrinterChanges] into the whole lists of
+ * [IPrinterFinder.discoverPrinters].
+ */
+internal fun Flow<List<Printer>>.accumulatePrinters(): Flow<List<Printer>> {
+	val changes = this
+	return flow {
+		val index = PrinterIndex()
+		changes.collect { changed ->
+			if (index.putAll(changed).isNotEmpty()) emit(index.snapshot())
+		}
+	}
+}
+
+/**
+ * How [CombinedPrinterFinder] runs the discovery on the different transports.
+ *
+ * In both modes a transport that fails is logged and skipped; if no printer is found at all, the first transport error
+ * is rethrown instead of [NoPrinterFoundException].
+ */
+enum class DiscoveryMode {
+	/**
+	 * Paired devices, bluetooth, BLE and network one after the other: the total time is the sum of all of them.
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * Network discovery runs alongside the bluetooth radio, merging the results as each transport reports them. Classic
+	 * inquiry and BLE scan share the same radio and slow each other down when run together, so they still take turns.
+	 */
+	PARALLEL
+}
+
+/**
+ * How network printers are found.
+ */
+enum class NetworkDiscoveryMode {
+	/**
+	 * The Zebra SDK multicast: printers report their name, but routed networks often drop it and it always waits for
+	 * its whole timeout.
+	 */
+	MULTICAST,
+
+	/**
+	 * [SubnetSweepPrinterFinder]: a connection attempt to every host of the local subnet, which works wherever the
+	 * printers are reachable and ends as soon as all hosts answered or timed out, but does not know their names.
+	 */
+	SUBNET_SWEEP
+}
+
+/**
+ * Longest time each transport is searched for, in both [DiscoveryMode]s; the printers found until then are kept.
+ */
+data class DiscoveryTimeBudgets(
+	val bluetoothMillis: Long = DEFAULT_BLUETOOTH_MILLIS,
+	val bleMillis: Long = DEFAULT_BLE_MILLIS,
+	val networkMillis: Long = DEFAULT_NETWORK_MILLIS
+) {
+	companion object {
+		const val DEFAULT_BLUETOOTH_MILLIS = 15_000L
+		const val DEFAULT_BLE_MILLIS = 12_000L
+		const val DEFAULT_NETWORK_MILLIS = 12_000L
+	}
 }
 
 class CombinedPrinterFinder(context: Context) {
@@ -16,78 +108,198 @@ class CombinedPrinterFinder(context: Context) {
 	private val bluetoothPrinterFinder = BluetoothPrinterFinder(context)
 	private val blePrinterFinder = BlePrinterFinder(context)
 	private val networkPrinterFinder = NetworkPrinterFinder(context)
+	private val subnetSweepPrinterFinder = SubnetSweepPrinterFinder()
 
-	suspend fun discoverPrinters(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean, searchOnNetwork: Boolean, searchOnBluetooth: Boolean, searchOnBle: Boolean): Flow<PrinterDiscoveryProgress> {
-		return if (USE_PARALLEL_DISCOVERY) discoverPrintersParallel(filter, useStrictFilteringForGenericDevices, searchOnNetwork, searchOnBluetooth, searchOnBle)
-		else discoverPrintersSequential(filter, useStrictFilteringForGenericDevices, searchOnNetwork, searchOnBluetooth, searchOnBle)
-	}
-
-	private suspend fun discoverPrintersParallel(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean, searchOnNetwork: Boolean, searchOnBluetooth: Boolean, searchOnBle: Boolean): Flow<PrinterDiscoveryProgress> {
-		return flow {
-			var isEmptyList = true
-			combine(
-				if (searchOnBluetooth) bluetoothPrinterFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices) else flowOf(listOf()),
-				if (searchOnBle) blePrinterFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices) else flowOf(listOf()),
-				if (searchOnNetwork) networkPrinterFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices) else flowOf(listOf())
-			) { bluetoothPrinters, blePrinters, networkPrinters -> blePrinters + networkPrinters + bluetoothPrinters }
-				.collect {
-					isEmptyList = it.isEmpty()
-					Timber.d("Found printers: ${it.joinToString(", ")}")
-					emit(PrinterDiscoveryProgress(it, null))
-				}
-			if (isEmptyList) {
-				throw NoPrinterFoundException()
-			}
+	suspend fun discoverPrinters(
+		filter: DeviceFilter?,
+		useStrictFilteringForGenericDevices: Boolean,
+		searchOnNetwork: Boolean,
+		searchOnBluetooth: Boolean,
+		searchOnBle: Boolean,
+		mode: DiscoveryMode = DiscoveryMode.SEQUENTIAL,
+		budgets: DiscoveryTimeBudgets = DiscoveryTimeBudgets(),
+		cache: DiscoveredPrinterCache? = null,
+		networkMode: NetworkDiscoveryMode = NetworkDiscoveryMode.MULTICAST
+	): Flow<PrinterDiscoveryProgress> {
+		val searchedTransports = setOfNotNull(
+			DiscoveryTransport.PAIRED.takeIf { searchOnBle || searchOnBluetooth },
+			DiscoveryTransport.BLUETOOTH.takeIf { searchOnBluetooth },
+			DiscoveryTransport.BLE.takeIf { searchOnBle },
+			DiscoveryTransport.NETWORK.takeIf { searchOnNetwork }
+		)
+		val networkFinder = when (networkMode) {
+			NetworkDiscoveryMode.MULTICAST    -> networkPrinterFinder
+			NetworkDiscoveryMode.SUBNET_SWEEP -> subnetSweepPrinterFinder
+		}
+		return when (mode) {
+			DiscoveryMode.PARALLEL   -> discoverPrintersParallel(filter, useStrictFilteringForGenericDevices, searchedTransports, budgets, cache, networkFinder)
+			DiscoveryMode.SEQUENTIAL -> discoverPrintersSequential(filter, useStrictFilteringForGenericDevices, searchedTransports, budgets, cache, networkFinder)
 		}
 	}
 
-	private suspend fun discoverPrintersSequential(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean, searchOnNetwork: Boolean, searchOnBluetooth: Boolean, searchOnBle: Boolean): Flow<PrinterDiscoveryProgress> {
+	private suspend fun discoverPrintersParallel(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean, searchedTransports: Set<DiscoveryTransport>, budgets: DiscoveryTimeBudgets, cache: DiscoveredPrinterCache?, networkFinder: IPrinterFinder): Flow<PrinterDiscoveryProgress> {
 		return channelFlow {
-			val printerList = arrayListOf<Printer>()
-			send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_in_progress.asFormattable()))
-
-			if (searchOnBle || searchOnBluetooth) {
-				send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_paired_in_progress.asFormattable()))
-				bluetoothBondedPrinterFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices).collect {
-					printerList.updateWith(it)
-					send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_paired_in_progress.asFormattable()))
+			val index = PrinterIndex()
+			val completedTransports = hashSetOf<DiscoveryTransport>()
+			val firstError = AtomicReference<Exception>()
+			val mutex = Mutex()
+			val message = R.string.printer_discovery_dialog_message_in_progress.asFormattable()
+
+			suspend fun update(printers: List<Printer>?, completedTransport: DiscoveryTransport?) {
+				mutex.withLock {
+					val changes = arrayListOf<PrinterChange>()
+					if (printers != null) changes.addAll(index.putAll(printers))
+					if (completedTransport != null) {
+						completedTransports.add(completedTransport)
+						changes += index.expireStale(searchedTransports, completedTransports)
+					}
+					if (changes.isNotEmpty() || printers == null) {
+						send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = message, completedTransports = completedTransports.toSet(), changes = changes))
+					}
 				}
 			}
-			if (searchOnBluetooth) {
-				send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_bluetooth_in_progress.asFormattable()))
-				bluetoothPrinterFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices).collect {
-					printerList.updateWith(it)
-					send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_bluetooth_in_progress.asFormattable()))
+
+			suspend fun search(transport: DiscoveryTransport, finder: IPrinterFinder, budgetMillis: Long) {
+				try {
+					withTimeoutOrNull(budgetMillis) {
+						finder.discoverPrinterChanges(filter, useStrictFilteringForGenericDevices).collect { update(it, null) }
+					} ?: Timber.d("$transport discovery stopped after its budget of $budgetMillis ms")
+				} catch (e: CancellationException) {
+					throw e
+				} catch (e: Exception) {
+					Timber.e(e, "$transport discovery failed, keeping the other transports")
+					firstError.compareAndSet(null, e)
 				}
+				update(null, transport)
 			}
 
-			if (searchOnBle) {
-				send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_ble_in_progress.asFormattable()))
-				blePrinterFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices).collect {
-					printerList.updateWith(it)
-					send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_ble_in_progress.asFormattable()))
+			val cached = index.putAll(loadCached(cache, searchedTransports, filter))
+			send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = message, changes = cached))
+			try {
+				coroutineScope {
+					if (DiscoveryTransport.NETWORK in searchedTransports) launch { search(DiscoveryTransport.NETWORK, networkFinder, budgets.networkMillis) }
+					if (DiscoveryTransport.PAIRED in searchedTransports) {
+						launch {
+							search(DiscoveryTransport.PAIRED, bluetoothBondedPrinterFinder, Long.MAX_VALUE)
+							if (DiscoveryTransport.BLUETOOTH in searchedTransports) search(DiscoveryTransport.BLUETOOTH, bluetoothPrinterFinder, budgets.bluetoothMillis)
+							if (DiscoveryTransport.BLE in searchedTransports) search(DiscoveryTransport.BLE, blePrinterFinder, budgets.bleMillis)
+						}
+					}
 				}
+			} finally {
+				// Every search completed or was cancelled by now, so nothing else touches the index
+				saveSeen(cache, index.snapshot())
 			}
 
-			if (searchOnNetwork) {
-				send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_network_in_progress.asFormattable()))
-				networkPrinterFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices).collect {
-					printerList.updateWith(it)
-					send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_network_in_progress.asFormattable()))
+			send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = R.string.printer_discovery_dialog_message_done.asFormattable(), completedTransports = completedTransports.toSet()))
+
+			if (index.isEmpty()) throw firstError.get() ?: NoPrinterFoundException()
+		}
+	}
+
+	private suspend fun discoverPrintersSequential(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean, searchedTransports: Set<DiscoveryTransport>, budgets: DiscoveryTimeBudgets, cache: DiscoveredPrinterCache?, networkFinder: IPrinterFinder): Flow<PrinterDiscoveryProgress> {
+		return channelFlow {
+			val index = PrinterIndex()
+			val completedTransports = hashSetOf<DiscoveryTransport>()
+			val firstError = AtomicReference<Exception>()
+			val cached = index.putAll(loadCached(cache, searchedTransports, filter))
+			send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = R.string.printer_discovery_dialog_message_in_progress.asFormattable(), changes = cached))
+
+			suspend fun search(transport: DiscoveryTransport, finder: IPrinterFinder, budgetMillis: Long, message: Int) {
+				send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = message.asFormattable(), completedTransports = completedTransports.toSet()))
+				try {
+					withTimeoutOrNull(budgetMillis) {
+						finder.discoverPrinterChanges(filter, useStrictFilteringForGenericDevices).collect {
+							val changes = index.putAll(it)
+							if (changes.isNotEmpty()) send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = message.asFormattable(), completedTransports = completedTransports.toSet(), changes = changes))
+						}
+					} ?: Timber.d("$transport discovery stopped after its budget of $budgetMillis ms")
+				} catch (e: CancellationException) {
+					throw e
+				} catch (e: Exception) {
+					Timber.e(e, "$transport discovery failed, keeping the other transports")
+					firstError.compareAndSet(null, e)
 				}
+				completedTransports.add(transport)
+				val expired = index.expireStale(searchedTransports, completedTransports)
+				if (expired.isNotEmpty()) send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = message.asFormattable(), completedTransports = completedTransports.toSet(), changes = expired))
+			}
+
+			try {
+				if (DiscoveryTransport.PAIRED in searchedTransports) search(DiscoveryTransport.PAIRED, bluetoothBondedPrinterFinder, Long.MAX_VALUE, R.string.printer_discovery_dialog_message_paired_in_progress)
+				if (DiscoveryTransport.BLUETOOTH in searchedTransports) search(DiscoveryTransport.BLUETOOTH, bluetoothPrinterFinder, budgets.bluetoothMillis, R.string.printer_discovery_dialog_message_bluetooth_in_progress)
+				if (DiscoveryTransport.BLE in searchedTransports) search(DiscoveryTransport.BLE, blePrinterFinder, budgets.bleMillis, R.string.printer_discovery_dialog_message_ble_in_progress)
+				if (DiscoveryTransport.NETWORK in searchedTransports) search(DiscoveryTransport.NETWORK, networkFinder, budgets.networkMillis, R.string.printer_discovery_dialog_message_network_in_progress)
+			} finally {
+				saveSeen(cache, index.snapshot())
 			}
 
-			send(PrinterDiscoveryProgress(printerList = printerList, message = R.string.printer_discovery_dialog_message_done.asFormattable()))
+			send(PrinterDiscoveryProgress(printerList = index.snapshot(), message = R.string.printer_discovery_dialog_message_done.asFormattable(), completedTransports = completedTransports.toSet()))
 
-			if (printerList.isEmpty()) throw NoPrinterFoundException()
+			if (index.isEmpty()) throw firstError.get() ?: NoPrinterFoundException()
+		}
+	}
+
+	/**
+	 * Cached printers of the transports being searched. A [DeviceFilter] judges the bluetooth devices themselves, which
+	 * a cached printer does not have, so the cache is skipped when [filter] is set instead of listing printers the
+	 * filter might reject.
+	 */
+	private suspend fun loadCached(cache: DiscoveredPrinterCache?, searchedTransports: Set<DiscoveryTransport>, filter: DeviceFilter?): List<Printer> {
+		if (cache == null) return emptyList()
+		if (filter != null) {
+			Timber.d("Not showing cached printers, a device filter is set")
+			return emptyList()
+		}
+		val types = PRINTER_TYPES.filter { type -> confirmingTransports(type).any { it in searchedTransports } }.toSet()
+		return try {
+			cache.load(types).also { Timber.d("Showing ${it.size} cached printers until discovery confirms them") }
+		} catch (e: Exception) {
+			Timber.w(e, "Cannot read the discovered printers cache")
+			emptyList()
+		}
+	}
+
+	/**
+	 * Stores the printers seen by this discovery, even when it is cancelled because one was picked before it ended.
+	 */
+	private suspend fun saveSeen(cache: DiscoveredPrinterCache?, printers: List<Printer>) {
+		if (cache == null) return
+		withContext(NonCancellable) {
+			try {
+				cache.recordSeen(printers.filter { it.isStale.not() })
+			} catch (e: Exception) {
+				Timber.w(e, "Cannot update the discovered printers cache")
+			}
 		}
 	}
 
 	companion object {
-		private const val USE_PARALLEL_DISCOVERY = false
+		private val PRINTER_TYPES = listOf(PrinterType.Bluetooth, PrinterType.BLE, PrinterType.Network)
+
+		/**
+		 * Transports whose results can confirm a cached printer of [type]. Paired devices are reported as BLE printers.
+		 */
+		private fun confirmingTransports(type: PrinterType): Set<DiscoveryTransport> {
+			return when (type) {
+				PrinterType.Bluetooth -> setOf(DiscoveryTransport.BLUETOOTH)
+				PrinterType.BLE       -> setOf(DiscoveryTransport.PAIRED, DiscoveryTransport.BLE)
+				PrinterType.Network   -> setOf(DiscoveryTransport.NETWORK)
+			}
+		}
+
+		/**
+		 * Drops the cached printers not confirmed by any of the transports able to find them, once all of them completed.
+		 */
+		private fun PrinterIndex.expireStale(searchedTransports: Set<DiscoveryTransport>, completedTransports: Set<DiscoveryTransport>): List<PrinterChange> {
+			return removeAll { printer ->
+				printer.isStale && confirmingTransports(printer.type).filter { it in searchedTransports }.all { it in completedTransports }
+			}
+		}
 	}
 }
 
+@Deprecated("Searches the whole list for every printer, use PrinterIndex to merge discovery results")
 fun ArrayList<Printer>.updateWith(list: List<Printer>) {
 	list.forEach { newPrinter ->
 		val indexOfFirst = this.indexOfFirst { it.address == newPrinter.address && it.typeId == newPrinter.typeId }
@@ -95,4 +307,3 @@ fun ArrayList<Printer>.updateWith(list: List<Printer>) {
 		else this[indexOfFirst] = newPrinter
 	}
 }
-
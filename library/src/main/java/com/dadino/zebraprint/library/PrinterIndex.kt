@@ -0,0 +1,135 @@
+package com.dadino.zebraprint.library
+
+import java.util.Collections
+
+/**
+ * A change of the discovered printer list.
+ */
+sealed class PrinterChange(val printer: Printer) {
+	class Added(printer: Printer) : PrinterChange(printer)
+	class Updated(printer: Printer) : PrinterChange(printer)
+	class Removed(printer: Printer) : PrinterChange(printer)
+
+	override fun toString(): String = "${javaClass.simpleName}(${printer.address}, ${printer.typeId})"
+}
+
+/**
+ * Discovered printers keyed by address and type, in the order they were first found.
+ *
+ * Adding or updating a printer is O(1) and returns the resulting [PrinterChange], if any. [snapshot] is O(1) too: it
+ * only records the changes since the previous snapshot, and the printers are copied into a list the first time the
+ * snapshot is read. Snapshots nobody reads, like the progresses merged away by a throttle, are never copied.
+ */
+class PrinterIndex {
+	private val printers = LinkedHashMap<PrinterKey, Printer>()
+	private val pendingChanges = arrayListOf<PrinterChange>()
+	private val lock = Any()
+	private var snapshot: PrinterSnapshot? = null
+
+	val size: Int
+		get() = printers.size
+
+	fun isEmpty(): Boolean = printers.isEmpty()
+
+	/**
+	 * Adds [printer], or replaces the one with the same address and type. Returns null if nothing changed.
+	 */
+	fun put(printer: Printer): PrinterChange? {
+		val previous = printers.put(PrinterKey.of(printer), printer)
+		if (previous == printer) return null
+		val change = if (previous == null) PrinterChange.Added(printer) else PrinterChange.Updated(printer)
+		pendingChanges.add(change)
+		return change
+	}
+
+	fun putAll(printers: Collection<Printer>): List<PrinterChange> {
+		return printers.mapNotNull { put(it) }
+	}
+
+	/**
+	 * Removes the printers matching [predicate].
+	 */
+	fun removeAll(predicate: (Printer) -> Boolean): List<PrinterChange> {
+		val removed = arrayListOf<PrinterChange>()
+		val iterator = printers.values.iterator()
+		while (iterator.hasNext()) {
+			val printer = iterator.next()
+			if (predicate(printer)) {
+				iterator.remove()
+				removed.add(PrinterChange.Removed(printer))
+			}
+		}
+		pendingChanges.addAll(removed)
+		return removed
+	}
+
+	/**
+	 * Immutable list of the printers as they are now, shared by every caller until the next change.
+	 */
+	fun snapshot(): List<Printer> {
+		val current = snapshot
+		if (current != null && pendingChanges.isEmpty()) return current
+		return PrinterSnapshot(lock, current, pendingChanges.toList()).also {
+			snapshot = it
+			pendingChanges.clear()
+		}
+	}
+}
+
+private data class PrinterKey(val address: String, val typeId: String) {
+	companion object {
+		fun of(printer: Printer): PrinterKey = PrinterKey(printer.address, printer.typeId)
+	}
+}
+
+/**
+ * The printers of [parent] with [changes] applied, materialized on first read starting from the closest ancestor
+ * already read, so the snapshots in between are never copied.
+ */
+internal class PrinterSnapshot(
+	private val lock: Any,
+	private var parent: PrinterSnapshot?,
+	private var changes: List<PrinterChange>
+) : AbstractList<Printer>() {
+	private var printers: List<Printer>? = null
+
+	internal val isMaterialized: Boolean
+		get() = synchronized(lock) { printers != null }
+
+	override val size: Int
+		get() = materialize().size
+
+	override fun get(index: Int): Printer = materialize()[index]
+
+	override fun iterator(): Iterator<Printer> = materialize().iterator()
+
+	private fun materialize(): List<Printer> {
+		synchronized(lock) {
+			printers?.let { return it }
+
+			val pending = ArrayDeque<PrinterSnapshot>()
+			var base: PrinterSnapshot? = this
+			while (base != null && base.printers == null) {
+				pending.addFirst(base)
+				base = base.parent
+			}
+			val merged = LinkedHashMap<PrinterKey, Printer>()
+			base?.printers?.forEach { merged[PrinterKey.of(it)] = it }
+			for (snapshot in pending) {
+				for (change in snapshot.changes) {
+					when (change) {
+						is PrinterChange.Removed -> merged.remove(PrinterKey.of(change.printer))
+						else                     -> merged[PrinterKey.of(change.printer)] = change.printer
+					}
+				}
+			}
+
+			val materialized: List<Printer> = Collections.unmodifiableList(ArrayList(merged.values))
+			printers = materialized
+			// The ancestors and their changes are not needed anymore
+			parent = null
+			changes = emptyList()
+			return materialized
+		}
+	}
+}
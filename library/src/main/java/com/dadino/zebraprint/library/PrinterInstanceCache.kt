@@ -0,0 +1,61 @@
+package com.dadino.zebraprint.library
+
+import com.zebra.sdk.comm.Connection
+import com.zebra.sdk.printer.PrinterLanguage
+import com.zebra.sdk.printer.ZebraPrinter
+import com.zebra.sdk.printer.ZebraPrinterFactory
+import com.zebra.sdk.printer.ZebraPrinterLinkOs
+import timber.log.Timber
+
+/**
+ * Memoizes the [ZebraPrinter], its [PrinterLanguage] and the [ZebraPrinterLinkOs] resolved for an open
+ * [Connection]. The factory methods query the printer over the wire to detect them, so only the first job after
+ * connecting pays that cost.
+ *
+ * The cached printers hold their connection, so entries are invalidated when the connection is closed or replaced,
+ * and the entries of connections closed by anyone else are dropped at the next lookup.
+ */
+object PrinterInstanceCache {
+	private val entries = HashMap<Connection, Entry>()
+
+	fun printer(connection: Connection): ZebraPrinter {
+		return entry(connection).printer
+	}
+
+	/**
+	 * Returns the Link-OS printer on [connection], or null if the printer does not run Link-OS.
+	 */
+	fun linkOsPrinter(connection: Connection): ZebraPrinterLinkOs? {
+		val entry = entry(connection)
+		synchronized(entry) {
+			if (entry.linkOsResolved.not()) {
+				entry.linkOsPrinter = ZebraPrinterFactory.createLinkOsPrinter(entry.printer, entry.printer.printerControlLanguage)
+				entry.linkOsResolved = true
+			}
+			return entry.linkOsPrinter
+		}
+	}
+
+	fun invalidate(connection: Connection) {
+		synchronized(entries) {
+			entries.remove(connection)
+		}
+	}
+
+	private fun entry(connection: Connection): Entry {
+		synchronized(entries) {
+			entries.keys.removeAll { it !== connection && it.isConnected.not() }
+			entries[connection]?.let { return it }
+		}
+		Timber.d("Detecting printer language on $connection")
+		val entry = Entry(ZebraPrinterFactory.getInstance(connection))
+		synchronized(entries) {
+			return entries.getOrPut(connection) { entry }
+		}
+	}
+
+	private class Entry(val printer: ZebraPrinter) {
+		var linkOsPrinter: ZebraPrinterLinkOs? = null
+		var linkOsResolved = false
+	}
+}
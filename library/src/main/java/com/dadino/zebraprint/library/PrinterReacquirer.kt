@@ -0,0 +1,196 @@
+package com.dadino.zebraprint.library
+
+import android.annotation.SuppressLint
+import android.bluetooth.BluetoothAdapter
+import android.bluetooth.BluetoothManager
+import android.bluetooth.le.ScanCallback
+import android.bluetooth.le.ScanFilter
+import android.bluetooth.le.ScanResult
+import android.bluetooth.le.ScanSettings
+import android.content.Context
+import com.zebra.sdk.comm.TcpConnection
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import timber.log.Timber
+import java.io.Closeable
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Checks whether a known printer is reachable again with a directed probe of its address, much cheaper than a full
+ * discovery:
+ * - network printers: a TCP connect to the ZPL port;
+ * - bluetooth printers: an RFCOMM connect to the serial port service;
+ * - BLE printers: a scan filtered on the printer MAC address.
+ *
+ * Probes are repeated until one succeeds or [timeoutMillis] expires.
+ */
+@SuppressLint("MissingPermission")
+class PrinterReacquirer(context: Context, var timeoutMillis: Long = DEFAULT_TIMEOUT_MILLIS) {
+	private val appContext: Context = context.applicationContext
+	private val bluetoothManager: BluetoothManager by lazy { (appContext.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager) }
+	private val attempts = AtomicLong()
+	private val successes = AtomicLong()
+	private val totalRecoveryMillis = AtomicLong()
+	private val lastRecoveryMillis = AtomicLong(-1)
+
+	val stats: PrinterRecoveryStats
+		get() = PrinterRecoveryStats(
+			quickReacquireAttempts = attempts.get(),
+			quickReacquireSuccesses = successes.get(),
+			totalRecoveryMillis = totalRecoveryMillis.get(),
+			lastRecoveryMillis = lastRecoveryMillis.get().takeIf { it >= 0 }
+		)
+
+	/**
+	 * Returns true as soon as a probe reaches the printer at [address], false if none did within [timeoutMillis].
+	 */
+	suspend fun reacquire(address: String, printerType: PrinterType?): Boolean {
+		if (timeoutMillis <= 0) return false
+		val type = printerType ?: if (BluetoothAdapter.checkBluetoothAddress(address.uppercase())) PrinterType.Bluetooth else PrinterType.Network
+		val start = System.currentTimeMillis()
+		attempts.incrementAndGet()
+		val reached = withTimeoutOrNull(timeoutMillis) {
+			when (type) {
+				PrinterType.Network   -> repeatProbe { probeTcp(address, remainingMillis(start).coerceAtMost(TCP_CONNECT_TIMEOUT_MILLIS)) }
+				PrinterType.Bluetooth -> repeatProbe { probeRfcomm(address, remainingMillis(start)) }
+				PrinterType.BLE       -> probeBle(address)
+			}
+		} ?: false
+		Timber.d("Quick reacquire of $address (type: ${type.id}) ${if (reached) "succeeded" else "failed"} in ${System.currentTimeMillis() - start} ms")
+		return reached
+	}
+
+	/**
+	 * Records that the printer was reacquired and printed on [recoveryMillis] after the failure.
+	 */
+	fun recordRecovery(recoveryMillis: Long) {
+		successes.incrementAndGet()
+		totalRecoveryMillis.addAndGet(recoveryMillis)
+		lastRecoveryMillis.set(recoveryMillis)
+	}
+
+	private fun remainingMillis(start: Long): Long {
+		return (timeoutMillis - (System.currentTimeMillis() - start)).coerceAtLeast(1)
+	}
+
+	private suspend inline fun repeatProbe(probe: () -> Boolean): Boolean {
+		while (true) {
+			if (probe()) return true
+			delay(PROBE_INTERVAL_MILLIS)
+		}
+	}
+
+	private suspend fun probeTcp(address: String, timeoutMillis: Long): Boolean {
+		return withContext(Dispatchers.IO) {
+			try {
+				Socket().use { it.connect(InetSocketAddress(address, TcpConnection.DEFAULT_ZPL_TCP_PORT), timeoutMillis.toInt()) }
+				true
+			} catch (e: IOException) {
+				Timber.d("TCP probe of $address failed: ${e.message}")
+				false
+			}
+		}
+	}
+
+	/**
+	 * RFCOMM connect has no timeout of its own: the socket is closed from a timer to abort it.
+	 */
+	private suspend fun probeRfcomm(address: String, timeoutMillis: Long): Boolean {
+		val adapter = bluetoothManager.adapter ?: return false
+		if (adapter.isEnabled.not()) return false
+		if (adapter.isDiscovering) adapter.cancelDiscovery()
+		return withContext(Dispatchers.IO) {
+			val socket = try {
+				adapter.getRemoteDevice(address.uppercase()).createInsecureRfcommSocketToServiceRecord(SERIAL_PORT_UUID)
+			} catch (e: Exception) {
+				Timber.d("Bluetooth probe of $address failed: ${e.message}")
+				return@withContext false
+			}
+			coroutineScope {
+				val timer = launch {
+					delay(timeoutMillis)
+					socket.closeQuietly()
+				}
+				try {
+					socket.connect()
+					true
+				} catch (e: IOException) {
+					Timber.d("Bluetooth probe of $address failed: ${e.message}")
+					false
+				} finally {
+					timer.cancel()
+					socket.closeQuietly()
+				}
+			}
+		}
+	}
+
+	private suspend fun probeBle(address: String): Boolean {
+		val scanner = bluetoothManager.adapter?.takeIf { it.isEnabled }?.bluetoothLeScanner ?: return false
+		val found = CompletableDeferred<Boolean>()
+		val callback = object : ScanCallback() {
+			override fun onScanResult(callbackType: Int, result: ScanResult) {
+				found.complete(true)
+			}
+
+			override fun onBatchScanResults(results: MutableList<ScanResult>) {
+				if (results.isNotEmpty()) found.complete(true)
+			}
+
+			override fun onScanFailed(errorCode: Int) {
+				Timber.d("BLE probe of $address failed with error $errorCode")
+				found.complete(false)
+			}
+		}
+		val filter = ScanFilter.Builder().setDeviceAddress(address.uppercase()).build()
+		val settings = ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build()
+		scanner.startScan(listOf(filter), settings, callback)
+		return try {
+			found.await()
+		} finally {
+			try {
+				scanner.stopScan(callback)
+			} catch (e: Exception) {
+				e.printStackTrace()
+			}
+		}
+	}
+
+	private fun Closeable.closeQuietly() {
+		try {
+			close()
+		} catch (e: IOException) {
+			e.printStackTrace()
+		}
+	}
+
+	companion object {
+		const val DEFAULT_TIMEOUT_MILLIS = 5000L
+		private const val TCP_CONNECT_TIMEOUT_MILLIS = 1500L
+		private const val PROBE_INTERVAL_MILLIS = 250L
+		private val SERIAL_PORT_UUID: UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB")
+	}
+}
+
+/**
+ * Outcome of the quick reacquire stage run before falling back to a full discovery. The recovery time of a successful
+ * reacquire goes from the failure of the job to the end of the retried one.
+ */
+data class PrinterRecoveryStats(
+	val quickReacquireAttempts: Long,
+	val quickReacquireSuccesses: Long,
+	val totalRecoveryMillis: Long,
+	val lastRecoveryMillis: Long?
+) {
+	val averageRecoveryMillis: Long?
+		get() = if (quickReacquireSuccesses == 0L) null else totalRecoveryMillis / quickReacquireSuccesses
+}
@@ -0,0 +1,48 @@
+package com.dadino.zebraprint.library
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers, per printer address, the last time the printer was known to be ready to print, so back-to-back
+ * jobs can skip the status round trip. Only ready states are cached: a printer reporting an error (head open,
+ * paper out, ...) is queried again before the next job, so known bad states still fail fast.
+ */
+class PrinterStatusCache(var ttlMillis: Long = DEFAULT_TTL_MILLIS) {
+	private val entries = ConcurrentHashMap<String, Entry>()
+
+	fun get(address: String): PrinterState? {
+		if (ttlMillis <= 0) return null
+		val entry = entries[address] ?: return null
+		return if (System.currentTimeMillis() - entry.timestamp <= ttlMillis) entry.state
+		else {
+			entries.remove(address, entry)
+			null
+		}
+	}
+
+	fun put(address: String, state: PrinterState) {
+		if (state.isReadyToPrint) entries[address] = Entry(state, System.currentTimeMillis())
+		else entries.remove(address)
+	}
+
+	/**
+	 * A job was written successfully: the cached ready state is valid for another [ttlMillis].
+	 */
+	fun refresh(address: String) {
+		entries[address]?.let { entries[address] = it.copy(timestamp = System.currentTimeMillis()) }
+	}
+
+	fun invalidate(address: String) {
+		entries.remove(address)
+	}
+
+	fun clear() {
+		entries.clear()
+	}
+
+	private data class Entry(val state: PrinterState, val timestamp: Long)
+
+	companion object {
+		const val DEFAULT_TTL_MILLIS = 3000L
+	}
+}
@@ -3,7 +3,6 @@ package com.dadino.zebraprint.library
 import com.zebra.sdk.comm.Connection
 import com.zebra.sdk.comm.ConnectionException
 import com.zebra.sdk.printer.ZebraPrinter
-import com.zebra.sdk.printer.ZebraPrinterFactory
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import timber.log.Timber
@@ -17,7 +16,7 @@ object StatusReader {
                 Timber.d("Status reading started")
                 if (printerConnection.isConnected.not()) printerConnection.open()
 
-                val printer: ZebraPrinter = ZebraPrinterFactory.getInstance(printerConnection)
+                val printer: ZebraPrinter = PrinterInstanceCache.printer(printerConnection)
 
                 val printerStatus: PrinterState =
                     PrinterState.fromPrinterStatus(printer.currentStatus)
@@ -0,0 +1,119 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import com.dadino.zebraprint.library.ProtoStoredFormatsOuterClass.ProtoPrinterFormats
+import com.zebra.sdk.comm.Connection
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.util.Collections
+
+/**
+ * Keeps [ZplTemplate]s stored on the printers as `^DF` formats, so each label only sends the small `^XF` recall job
+ * with its field data.
+ *
+ * A template is stored under a name derived from its hash (`E:1A2B3C4D.ZPL`), so editing a template stores a new
+ * format instead of recalling a stale one. The names stored on each printer are persisted in the `stored_formats.pb`
+ * DataStore; the first time a printer is used in the process its file list is read once to drop the formats that
+ * are gone (flash erased, `R:` drive after a reboot, ...).
+ */
+class StoredFormatManager(context: Context) {
+	private val dataStore = context.applicationContext.storedFormatsDataStore
+	private val verifiedPrinters: MutableSet<String> = Collections.synchronizedSet(hashSetOf())
+
+	/**
+	 * Drive formats are stored on: `E` (flash) survives a reboot, `R` (RAM) does not.
+	 */
+	var drive: Char = DEFAULT_DRIVE
+
+	/**
+	 * Prints [template] through its stored format, storing it first if needed. Each field value is encoded in the code
+	 * page of its `^FN` slot, the one the printer applies when it runs the format.
+	 */
+	suspend fun print(connection: Connection, template: ZplTemplate, fields: Map<Int, String>) {
+		return withContext(Dispatchers.IO) {
+			require(template.names.isEmpty()) { "Template ${template.id} uses named placeholders, stored formats only support ^FN fields" }
+			if (connection.isConnected.not()) connection.open()
+
+			val formatName = formatName(template)
+			val address = connection.printerAddress
+			if (address == null || isStored(connection, address, formatName, template.hash).not()) {
+				Timber.d("Storing format $formatName for template ${template.id} on $address")
+				upload(connection, template, formatName)
+				address?.let { markStored(it, formatName, template.hash) }
+			}
+			recall(connection, template, formatName, fields)
+		}
+	}
+
+	/**
+	 * Forgets the formats known to be stored on [printerAddress], or on every printer if null.
+	 */
+	suspend fun forget(printerAddress: String? = null) {
+		dataStore.updateData { formats ->
+			if (printerAddress == null) formats.toBuilder().clearPrinters().build()
+			else formats.toBuilder().removePrinters(printerAddress).build()
+		}
+		if (printerAddress == null) verifiedPrinters.clear() else verifiedPrinters.remove(printerAddress)
+	}
+
+	private fun formatName(template: ZplTemplate): String {
+		return "${drive.uppercaseChar()}:${template.hash.take(FORMAT_NAME_LENGTH)}.ZPL"
+	}
+
+	private suspend fun isStored(connection: Connection, address: String, formatName: String, hash: String): Boolean {
+		if (verifiedPrinters.add(address)) verify(connection, address)
+		val printerFormats = dataStore.data.first().printersMap[address] ?: return false
+		return printerFormats.hashByNameMap[formatName] == hash
+	}
+
+	private suspend fun verify(connection: Connection, address: String) {
+		val fileNames = try {
+			PrinterInstanceCache.printer(connection).retrieveFileNames(arrayOf("ZPL")).toSet()
+		} catch (e: Exception) {
+			Timber.w(e, "Cannot read the stored formats of $address, trusting the persisted ones")
+			return
+		}
+		dataStore.updateData { formats ->
+			val printerFormats = formats.printersMap[address] ?: return@updateData formats
+			val stillStored = printerFormats.hashByNameMap.filterKeys { it in fileNames }
+			if (stillStored.size == printerFormats.hashByNameCount) formats
+			else formats.toBuilder().putPrinters(address, ProtoPrinterFormats.newBuilder().putAllHashByName(stillStored).build()).build()
+		}
+	}
+
+	private suspend fun markStored(address: String, formatName: String, hash: String) {
+		dataStore.updateData { formats ->
+			val printerFormats = (formats.printersMap[address] ?: ProtoPrinterFormats.getDefaultInstance()).toBuilder()
+				.putHashByName(formatName, hash)
+				.build()
+			formats.toBuilder().putPrinters(address, printerFormats).build()
+		}
+	}
+
+	private fun upload(connection: Connection, template: ZplTemplate, formatName: String) {
+		val body = template.source.trim().removePrefix("^XA").removeSuffix("^XZ")
+		ZplEncoder.forConnection(connection).write(connection, "^XA^DF$formatName^FS$body^XZ", template.initialCodePage)
+	}
+
+	private fun recall(connection: Connection, template: ZplTemplate, formatName: String, fields: Map<Int, String>) {
+		val encoder = ZplEncoder.forConnection(connection)
+		synchronized(encoder) {
+			// The commands are plain ASCII, only the values depend on the code page of their slot
+			encoder.append(connection, "^XA^XF$formatName^FS", ZplCodePage.ASCII)
+			fields.forEach { (number, value) ->
+				encoder.append(connection, "^FN$number^FD", ZplCodePage.ASCII)
+				encoder.append(connection, value, template.fieldCodePage(number) ?: template.initialCodePage)
+				encoder.append(connection, "^FS", ZplCodePage.ASCII)
+			}
+			encoder.append(connection, "^XZ", ZplCodePage.ASCII)
+			encoder.flush(connection)
+		}
+	}
+
+	companion object {
+		const val DEFAULT_DRIVE = 'E'
+		private const val FORMAT_NAME_LENGTH = 8
+	}
+}
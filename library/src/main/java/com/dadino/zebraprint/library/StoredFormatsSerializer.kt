@@ -0,0 +1,33 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.DataStore
+import androidx.datastore.core.Serializer
+import androidx.datastore.dataStore
+import com.dadino.zebraprint.library.ProtoStoredFormatsOuterClass.ProtoStoredFormats
+import com.google.protobuf.InvalidProtocolBufferException
+import java.io.InputStream
+import java.io.OutputStream
+
+object StoredFormatsSerializer : Serializer<ProtoStoredFormats> {
+	override val defaultValue: ProtoStoredFormats = ProtoStoredFormats.getDefaultInstance()
+
+	override suspend fun readFrom(input: InputStream): ProtoStoredFormats {
+		try {
+			return ProtoStoredFormats.parseFrom(input)
+		} catch (exception: InvalidProtocolBufferException) {
+			throw CorruptionException("Cannot read proto.", exception)
+		}
+	}
+
+	override suspend fun writeTo(
+		t: ProtoStoredFormats,
+		output: OutputStream
+	) = t.writeTo(output)
+}
+
+val Context.storedFormatsDataStore: DataStore<ProtoStoredFormats> by dataStore(
+	fileName = "stored_formats.pb",
+	serializer = StoredFormatsSerializer
+)
@@ -0,0 +1,214 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import android.graphics.Bitmap
+import com.dadino.zebraprint.library.ProtoStoredGraphicsOuterClass.ProtoPrinterGraphics
+import com.dadino.zebraprint.library.ProtoStoredGraphicsOuterClass.ProtoStoredGraphic
+import com.zebra.sdk.comm.Connection
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.security.MessageDigest
+import java.util.Collections
+
+/**
+ * Keeps graphics stored on the printers, so labels recall them with `^XG` instead of sending them inline every time.
+ *
+ * Graphics are stored under a name derived from the hash of their content (`E:1A2B3C4D.GRF`), with `~DG` for hex and
+ * ASCII compressed data and `~DY` for `:Z64:` data. The graphics stored on each printer are persisted in the
+ * `stored_graphics.pb` DataStore with their size and last use: when storing a new graphic would exceed
+ * [flashBudgetBytes], the least recently used ones are deleted from the printer with `^ID`. The first time a printer
+ * is used in the process its file list is read once to drop the graphics that are gone.
+ */
+class StoredGraphicManager(context: Context) {
+	private val dataStore = context.applicationContext.storedGraphicsDataStore
+	private val verifiedPrinters: MutableSet<String> = Collections.synchronizedSet(hashSetOf())
+
+	/**
+	 * Drive graphics are stored on: `E` (flash) survives a reboot, `R` (RAM) does not.
+	 */
+	var drive: Char = DEFAULT_DRIVE
+
+	/**
+	 * Bytes of printer memory the stored graphics can take, counted on their uncompressed size.
+	 */
+	var flashBudgetBytes: Int = DEFAULT_FLASH_BUDGET_BYTES
+
+	/**
+	 * Prints [zpl] replacing every inline `^GFA` graphic with a `^XG` recall of the same graphic stored on the printer,
+	 * storing it first if needed. Jobs without inline graphics, or sent to a connection whose printer address is unknown,
+	 * are printed unchanged.
+	 */
+	suspend fun printZpl(connection: Connection, zpl: String, codePage: ZplCodePage = ZplCodePage.UTF_8) {
+		return withContext(Dispatchers.IO) {
+			if (connection.isConnected.not()) connection.open()
+
+			val graphics = findInlineGraphics(zpl)
+			val address = connection.printerAddress
+			if (graphics.isEmpty() || address == null) {
+				ZplEncoder.forConnection(connection).write(connection, zpl, codePage)
+				return@withContext
+			}
+
+			val names = graphics.map { graphic ->
+				val hash = sha256("${graphic.totalBytes},${graphic.bytesPerRow},${zpl.substring(graphic.dataStart, graphic.end)}")
+				ensureStored(connection, address, hash, graphic.totalBytes) { name -> upload(connection, name, graphic, zpl) }
+			}
+
+			val encoder = ZplEncoder.forConnection(connection)
+			synchronized(encoder) {
+				var currentCodePage = codePage
+				var start = 0
+				graphics.forEachIndexed { index, graphic ->
+					currentCodePage = encoder.append(connection, zpl.subSequence(start, graphic.start), currentCodePage)
+					encoder.append(connection, "^XG${names[index]},1,1", currentCodePage)
+					start = graphic.end
+				}
+				encoder.append(connection, zpl.subSequence(start, zpl.length), currentCodePage)
+				encoder.flush(connection)
+			}
+		}
+	}
+
+	/**
+	 * Prints [bitmap] at [x], [y] recalling it with `^XG`, converting and storing it with [converter] the first time.
+	 */
+	suspend fun printBitmap(connection: Connection, bitmap: Bitmap, x: Int = 0, y: Int = 0, converter: ZplGraphicConverter = ZplGraphicConverter()) {
+		return withContext(Dispatchers.IO) {
+			if (connection.isConnected.not()) connection.open()
+
+			val address = connection.printerAddress
+			if (address == null) {
+				converter.printBitmap(connection, bitmap, x, y)
+				return@withContext
+			}
+
+			val totalBytes = (bitmap.width + 7) / 8 * bitmap.height
+			val name = ensureStored(connection, address, converter.hash(bitmap), totalBytes) { name ->
+				val output = ConnectionOutputStream(connection)
+				converter.write(bitmap, output) { total, bytesPerRow, compression -> downloadHeader(name, total, bytesPerRow, compression) }
+				output.flush()
+			}
+			ZplEncoder.forConnection(connection).write(connection, "^XA^FO$x,$y^XG$name,1,1^FS^XZ", ZplCodePage.ASCII)
+		}
+	}
+
+	/**
+	 * Forgets which graphics are stored on [printerAddress], or on every printer if null. The graphics are not deleted
+	 * from the printers.
+	 */
+	suspend fun forget(printerAddress: String? = null) {
+		dataStore.updateData { graphics ->
+			if (printerAddress == null) graphics.toBuilder().clearPrinters().build()
+			else graphics.toBuilder().removePrinters(printerAddress).build()
+		}
+		if (printerAddress == null) verifiedPrinters.clear() else verifiedPrinters.remove(printerAddress)
+	}
+
+	private suspend fun ensureStored(connection: Connection, address: String, hash: String, size: Int, upload: (String) -> Unit): String {
+		if (verifiedPrinters.add(address)) verify(connection, address)
+
+		val name = "${drive.uppercaseChar()}:${hash.take(GRAPHIC_NAME_LENGTH)}.GRF"
+		val now = System.currentTimeMillis()
+		val stored = dataStore.data.first().printersMap[address]?.graphicsList.orEmpty()
+		val existing = stored.firstOrNull { it.name == name && it.hash == hash }
+		if (existing != null) {
+			if (now - existing.lastUsed > LAST_USED_GRANULARITY_MILLIS) {
+				updateGraphics(address) { graphics -> graphics.map { if (it.name == name) it.toBuilder().setLastUsed(now).build() else it } }
+			}
+			return name
+		}
+
+		val evicted = arrayListOf<ProtoStoredGraphic>()
+		var usedBytes = stored.filter { it.name != name }.sumOf { it.size.toLong() }
+		for (graphic in stored.filter { it.name != name }.sortedBy { it.lastUsed }) {
+			if (usedBytes + size <= flashBudgetBytes) break
+			evicted.add(graphic)
+			usedBytes -= graphic.size
+		}
+		evicted.forEach { graphic ->
+			Timber.d("Deleting stored graphic ${graphic.name} from $address")
+			ZplEncoder.forConnection(connection).write(connection, "^XA^ID${graphic.name}^FS^XZ", ZplCodePage.ASCII)
+		}
+
+		Timber.d("Storing graphic $name ($size bytes) on $address")
+		upload(name)
+		val entry = ProtoStoredGraphic.newBuilder().setName(name).setHash(hash).setSize(size).setLastUsed(now).build()
+		val evictedNames = evicted.map { it.name }.toSet()
+		updateGraphics(address) { graphics -> graphics.filter { it.name != name && it.name !in evictedNames } + entry }
+		return name
+	}
+
+	private suspend fun verify(connection: Connection, address: String) {
+		val fileNames = try {
+			PrinterInstanceCache.printer(connection).retrieveFileNames(arrayOf("GRF")).toSet()
+		} catch (e: Exception) {
+			Timber.w(e, "Cannot read the stored graphics of $address, trusting the persisted ones")
+			return
+		}
+		updateGraphics(address) { graphics -> graphics.filter { it.name in fileNames } }
+	}
+
+	private suspend fun updateGraphics(address: String, update: (List<ProtoStoredGraphic>) -> List<ProtoStoredGraphic>) {
+		dataStore.updateData { graphics ->
+			val current = graphics.printersMap[address]?.graphicsList.orEmpty()
+			val updated = update(current)
+			if (updated == current) graphics
+			else graphics.toBuilder().putPrinters(address, ProtoPrinterGraphics.newBuilder().addAllGraphics(updated).build()).build()
+		}
+	}
+
+	private fun upload(connection: Connection, name: String, graphic: InlineGraphic, zpl: String) {
+		val compression = if (zpl.startsWith(":Z64:", graphic.dataStart) || zpl.startsWith(":B64:", graphic.dataStart)) GraphicCompression.Z64 else GraphicCompression.ACS
+		val encoder = ZplEncoder.forConnection(connection)
+		synchronized(encoder) {
+			encoder.append(connection, downloadHeader(name, graphic.totalBytes, graphic.bytesPerRow, compression), ZplCodePage.ASCII)
+			encoder.append(connection, zpl.subSequence(graphic.dataStart, graphic.end), ZplCodePage.ASCII)
+			encoder.flush(connection)
+		}
+	}
+
+	private fun downloadHeader(name: String, totalBytes: Int, bytesPerRow: Int, compression: GraphicCompression): String {
+		return when (compression) {
+			GraphicCompression.ACS -> "~DG$name,$totalBytes,$bytesPerRow,"
+			GraphicCompression.Z64 -> "~DY${name.substringBeforeLast('.')},A,G,$totalBytes,$bytesPerRow,"
+		}
+	}
+
+	/**
+	 * Finds the `^GFA,b,c,d,data` commands of [zpl]; the data ends at the next command.
+	 */
+	private fun findInlineGraphics(zpl: String): List<InlineGraphic> {
+		val graphics = arrayListOf<InlineGraphic>()
+		var start = zpl.indexOf(INLINE_GRAPHIC)
+		while (start >= 0) {
+			val byteCountEnd = zpl.indexOf(',', start + INLINE_GRAPHIC.length)
+			val totalEnd = if (byteCountEnd < 0) -1 else zpl.indexOf(',', byteCountEnd + 1)
+			val bytesPerRowEnd = if (totalEnd < 0) -1 else zpl.indexOf(',', totalEnd + 1)
+			val totalBytes = if (bytesPerRowEnd < 0) null else zpl.substring(byteCountEnd + 1, totalEnd).trim().toIntOrNull()
+			val bytesPerRow = if (bytesPerRowEnd < 0) null else zpl.substring(totalEnd + 1, bytesPerRowEnd).trim().toIntOrNull()
+			if (totalBytes == null || bytesPerRow == null) break
+
+			var end = bytesPerRowEnd + 1
+			while (end < zpl.length && zpl[end] != '^' && zpl[end] != '~') end++
+			graphics.add(InlineGraphic(start, bytesPerRowEnd + 1, end, totalBytes, bytesPerRow))
+			start = zpl.indexOf(INLINE_GRAPHIC, end)
+		}
+		return graphics
+	}
+
+	private fun sha256(text: String): String {
+		return MessageDigest.getInstance("SHA-256").digest(text.toByteArray(Charsets.UTF_8)).joinToString("") { "%02X".format(it) }
+	}
+
+	private class InlineGraphic(val start: Int, val dataStart: Int, val end: Int, val totalBytes: Int, val bytesPerRow: Int)
+
+	companion object {
+		const val DEFAULT_DRIVE = 'E'
+		const val DEFAULT_FLASH_BUDGET_BYTES = 512 * 1024
+		private const val INLINE_GRAPHIC = "^GFA,"
+		private const val GRAPHIC_NAME_LENGTH = 8
+		private const val LAST_USED_GRANULARITY_MILLIS = 60_000L
+	}
+}
@@ -0,0 +1,33 @@
+package com.dadino.zebraprint.library
+
+import android.content.Context
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.DataStore
+import androidx.datastore.core.Serializer
+import androidx.datastore.dataStore
+import com.dadino.zebraprint.library.ProtoStoredGraphicsOuterClass.ProtoStoredGraphics
+import com.google.protobuf.InvalidProtocolBufferException
+import java.io.InputStream
+import java.io.OutputStream
+
+object StoredGraphicsSerializer : Serializer<ProtoStoredGraphics> {
+	override val defaultValue: ProtoStoredGraphics = ProtoStoredGraphics.getDefaultInstance()
+
+	override suspend fun readFrom(input: InputStream): ProtoStoredGraphics {
+		try {
+			return ProtoStoredGraphics.parseFrom(input)
+		} catch (exception: InvalidProtocolBufferException) {
+			throw CorruptionException("Cannot read proto.", exception)
+		}
+	}
+
+	override suspend fun writeTo(
+		t: ProtoStoredGraphics,
+		output: OutputStream
+	) = t.writeTo(output)
+}
+
+val Context.storedGraphicsDataStore: DataStore<ProtoStoredGraphics> by dataStore(
+	fileName = "stored_graphics.pb",
+	serializer = StoredGraphicsSerializer
+)
@@ -0,0 +1,122 @@
+package com.dadino.zebraprint.library
+
+import com.zebra.sdk.comm.TcpConnection
+import com.zebra.sdk.printer.discovery.DeviceFilter
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import timber.log.Timber
+import java.io.IOException
+import java.net.Inet4Address
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.NetworkInterface
+import java.net.Socket
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+
+/**
+ * Finds network printers by trying a TCP connection to the printer [ports] of every host of the local IPv4 subnets,
+ * for networks that drop the multicast used by [NetworkPrinterFinder]. Responders are reported as soon as they answer,
+ * without a name, and the flow completes when every host has been probed.
+ */
+class SubnetSweepPrinterFinder(
+	private val ports: List<Int> = DEFAULT_PORTS,
+	private val connectTimeoutMillis: Int = DEFAULT_CONNECT_TIMEOUT_MILLIS,
+	private val parallelism: Int = DEFAULT_PARALLELISM
+) : IPrinterFinder {
+
+	override suspend fun discoverPrinters(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
+		return discoverPrinterChanges(filter, useStrictFilteringForGenericDevices).accumulatePrinters()
+	}
+
+	override suspend fun discoverPrinterChanges(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
+		return flow {
+			val hosts = localSubnetHosts()
+			Timber.d("Subnet sweep started on ${hosts.size} hosts")
+
+			sweep(hosts, ports, connectTimeoutMillis, parallelism).collect { address ->
+				val printer = Printer(address = address.hostAddress, friendlyName = null, typeId = PrinterType.Network.id)
+				Timber.d("Network printer found by subnet sweep: ${printer.address}")
+				emit(listOf(printer))
+			}
+
+			Timber.d("Subnet sweep finished")
+		}
+	}
+
+	companion object {
+		val DEFAULT_PORTS = listOf(TcpConnection.DEFAULT_ZPL_TCP_PORT, TcpConnection.DEFAULT_CPCL_TCP_PORT)
+		const val DEFAULT_CONNECT_TIMEOUT_MILLIS = 300
+		const val DEFAULT_PARALLELISM = 64
+
+		/**
+		 * Networks wider than this are only swept on the /24 around this device.
+		 */
+		private const val MIN_PREFIX_LENGTH = 24
+
+		/**
+		 * Emits the [hosts] accepting a connection on any of the [ports], as they answer, probing at most [parallelism]
+		 * hosts at a time.
+		 */
+		internal fun sweep(hosts: List<InetAddress>, ports: List<Int>, connectTimeoutMillis: Int, parallelism: Int): Flow<InetAddress> {
+			return channelFlow {
+				val semaphore = Semaphore(parallelism.coerceAtLeast(1))
+				hosts.forEach { host ->
+					launch(Dispatchers.IO) {
+						val responds = semaphore.withPermit { respondsOnAnyPort(host, ports, connectTimeoutMillis) }
+						if (responds) send(host)
+					}
+				}
+			}
+		}
+
+		private fun respondsOnAnyPort(host: InetAddress, ports: List<Int>, connectTimeoutMillis: Int): Boolean {
+			for (port in ports) {
+				try {
+					Socket().use { it.connect(InetSocketAddress(host, port), connectTimeoutMillis) }
+					return true
+				} catch (e: SocketTimeoutException) {
+					// Nobody answered, the other ports would time out as well
+					return false
+				} catch (e: IOException) {
+					// Refused: the host is there, try the next port
+				}
+			}
+			return false
+		}
+
+		/**
+		 * Every other host of the IPv4 subnets of the active, non point-to-point interfaces.
+		 */
+		internal fun localSubnetHosts(): List<InetAddress> {
+			return try {
+				NetworkInterface.getNetworkInterfaces()?.toList().orEmpty()
+					.filter { it.isUp && it.isLoopback.not() && it.isPointToPoint.not() && it.isVirtual.not() }
+					.flatMap { it.interfaceAddresses }
+					.mapNotNull { interfaceAddress -> (interfaceAddress.address as? Inet4Address)?.let { subnetHosts(it, interfaceAddress.networkPrefixLength.toInt()) } }
+					.flatten()
+					.distinct()
+			} catch (e: IOException) {
+				Timber.w(e, "Cannot list the network interfaces")
+				emptyList()
+			}
+		}
+
+		internal fun subnetHosts(address: Inet4Address, prefixLength: Int): List<InetAddress> {
+			// /31 and /32 have no other host to sweep
+			if (prefixLength > 30) return emptyList()
+			val hostBits = 32 - prefixLength.coerceAtLeast(MIN_PREFIX_LENGTH)
+			val self = ByteBuffer.wrap(address.address).int
+			val network = self and (-1 shl hostBits)
+			return (1 until (1 shl hostBits) - 1)
+				.map { network or it }
+				.filter { it != self }
+				.map { InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(it).array()) }
+		}
+	}
+}
@@ -4,6 +4,7 @@ import android.Manifest
 import android.annotation.SuppressLint
 import android.content.Context
 import android.content.pm.PackageManager
+import android.graphics.Bitmap
 import android.os.Build
 import android.view.LayoutInflater
 import android.view.View
@@ -17,19 +18,23 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.zebra.sdk.comm.Connection
 import com.zebra.sdk.comm.ConnectionException
 import com.zebra.sdk.printer.discovery.DeviceFilter
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.buffer
-import kotlinx.coroutines.flow.onEach
-import kotlinx.coroutines.flow.takeWhile
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.produceIn
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withContext
 import timber.log.Timber
+import java.io.File
+import java.io.InputStream
 import java.lang.ref.WeakReference
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
+import java.nio.ByteBuffer
 
 class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var searchOnNetwork: Boolean = true, var searchOnBluetooth: Boolean = true, var searchOnBle: Boolean = true) {
     private var context: Context? = null
@@ -38,6 +43,136 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
         CombinedPrinterFinder(activity?.get() ?: throw ActivityNotSetException())
     }
     private val connectionHandler: ConnectionHandler by lazy { ConnectionHandler() }
+
+    /**
+     * Whether the transports are searched one after the other or network and bluetooth together.
+     */
+    var discoveryMode: DiscoveryMode = DiscoveryMode.SEQUENTIAL
+
+    /**
+     * Longest time each transport is searched for when discovering printers.
+     */
+    var discoveryTimeBudgets: DiscoveryTimeBudgets = DiscoveryTimeBudgets()
+
+    /**
+     * Whether network printers are found by multicast or by sweeping the local subnet.
+     */
+    var networkDiscoveryMode: NetworkDiscoveryMode = NetworkDiscoveryMode.MULTICAST
+
+    private val discoveryCache: DiscoveredPrinterCache by lazy {
+        DiscoveredPrinterCache(context ?: throw ActivityNotSetException())
+    }
+
+    /**
+     * When set, the printers found by previous discoveries are listed right away, marked as stale until the current
+     * discovery sees them again, and dropped if it does not. Discoveries using a device filter do not list them.
+     */
+    var useDiscoveryCache: Boolean = true
+
+    /**
+     * Maximum number of printer connections kept open at the same time; the least recently used one is closed
+     * when a connection to another printer is needed.
+     */
+    var maxPooledConnections: Int
+        get() = connectionHandler.maxPoolSize
+        set(value) {
+            connectionHandler.maxPoolSize = value
+        }
+
+    /**
+     * Pooled connections unused for longer than this are closed the next time a connection is requested.
+     */
+    var connectionIdleTimeoutMillis: Long
+        get() = connectionHandler.idleTimeoutMillis
+        set(value) {
+            connectionHandler.idleTimeoutMillis = value
+        }
+
+    val connectionPoolStats: ConnectionPoolStats
+        get() = connectionHandler.stats
+
+    private val statusCache: PrinterStatusCache by lazy { PrinterStatusCache() }
+
+    /**
+     * How long a printer that reported to be ready to print is trusted without asking its status again. Every
+     * successful job extends it, while any error invalidates it. Set to 0 to read the status before every job.
+     */
+    var statusCacheTtlMillis: Long
+        get() = statusCache.ttlMillis
+        set(value) {
+            statusCache.ttlMillis = value
+        }
+    private val spooler: PrintSpooler by lazy {
+        PrintSpooler(context ?: throw ActivityNotSetException()) { printAction -> printQueuedJob(printAction) }
+    }
+
+    /**
+     * State changes of the jobs queued with the `enqueue` functions.
+     */
+    val printJobStates: Flow<PrintJobState>
+        get() = spooler.jobStates
+
+    /**
+     * Upper bound of a single write when printing a batch: consecutive labels are coalesced until this size is reached.
+     * Keep it within the printer receive buffer.
+     */
+    var maxBatchBytes: Int = DEFAULT_MAX_BATCH_BYTES
+
+    private val templateCache: ZplTemplateCache by lazy { ZplTemplateCache() }
+
+    /**
+     * Encodes the ZPL strings that are batched or queued as bytes, honoring `^CI` like [printZplWithSelectedPrinter].
+     */
+    private val zplEncoder = ZplEncoder()
+    private val storedFormatManager: StoredFormatManager by lazy {
+        StoredFormatManager(context ?: throw ActivityNotSetException())
+    }
+
+    private val storedGraphicManager: StoredGraphicManager by lazy {
+        StoredGraphicManager(context ?: throw ActivityNotSetException())
+    }
+
+    /**
+     * When set, inline `^GFA` graphics of ZPL jobs and printed bitmaps are stored on the printer the first time and
+     * recalled with `^XG` afterwards, instead of being sent with every label.
+     */
+    var cacheGraphicsOnPrinter: Boolean = false
+
+    /**
+     * Printer memory the cached graphics can take; the least recently used ones are deleted to make room.
+     */
+    var graphicsFlashBudgetBytes: Int
+        get() = storedGraphicManager.flashBudgetBytes
+        set(value) {
+            storedGraphicManager.flashBudgetBytes = value
+        }
+
+    /**
+     * Drive used by [printStoredTemplateWithSelectedPrinter] to store the formats: `E` (flash) or `R` (RAM).
+     */
+    var storedFormatDrive: Char
+        get() = storedFormatManager.drive
+        set(value) {
+            storedFormatManager.drive = value
+        }
+
+    private val printerReacquirer: PrinterReacquirer by lazy {
+        PrinterReacquirer(context ?: throw ActivityNotSetException())
+    }
+
+    /**
+     * How long a directed probe of the selected printer is retried after a failed job, before falling back to a full
+     * discovery. Set to 0 to start the discovery right away.
+     */
+    var quickReacquireTimeoutMillis: Long
+        get() = printerReacquirer.timeoutMillis
+        set(value) {
+            printerReacquirer.timeoutMillis = value
+        }
+
+    val printerRecoveryStats: PrinterRecoveryStats
+        get() = printerReacquirer.stats
+
     private val selectedPrinterRepo: ISelectedPrinterRepository by lazy {
         DataStoreSelectedPrinterRepository(activity?.get() ?: throw ActivityNotSetException())
     }
@@ -47,6 +182,7 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
         this.context = activity.applicationContext
         printerFinder.toString()
         selectedPrinterRepo.toString()
+        spooler.start()
         activity.lifecycle.addObserver(object : DefaultLifecycleObserver {
             override fun onDestroy(owner: LifecycleOwner) {
                 runBlocking { closeConnections() }
@@ -56,17 +192,233 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
     }
 
     suspend fun printZplWithSelectedPrinter(zpl: String, failOnErrors: Boolean = false): Result<PrintResponse> {
-        return printWithSelectedPrinter(failOnErrors) { connection -> ZplPrinter.printZPL(connection, zpl) }
+        return printWithSelectedPrinter(failOnErrors) { connection ->
+            if (cacheGraphicsOnPrinter) storedGraphicManager.printZpl(connection, zpl)
+            else ZplPrinter.printZPL(connection, zpl)
+        }
     }
 
     suspend fun printTemplateWithSelectedPrinter(templateName: String, data: Map<Int, String>, failOnErrors: Boolean = false): Result<PrintResponse> {
         return printWithSelectedPrinter(failOnErrors) { connection -> ZplPrinter.printZPLTemplate(connection, templateName, data) }
     }
 
+    /**
+     * Compiles [zpl] and keeps it as template [templateId] for [printLocalTemplateWithSelectedPrinter] and
+     * [printStoredTemplateWithSelectedPrinter]. [codePage] is in effect until the first `^CI` of the template, and
+     * every field value is encoded in the code page of its slot. Registering the same source and code page again is
+     * a no-op, anything else replaces the template.
+     */
+    fun registerTemplate(templateId: String, zpl: String, codePage: ZplCodePage = ZplCodePage.UTF_8): ZplTemplate {
+        return templateCache.getOrCompile(templateId, zpl, codePage)
+    }
+
+    /**
+     * Renders the registered template [templateId] locally, filling its `^FN` fields with [fields] and its `${name}`
+     * placeholders with [namedValues], and prints it. Unlike [printTemplateWithSelectedPrinter], the template does not
+     * need to be stored on the printer.
+     */
+    suspend fun printLocalTemplateWithSelectedPrinter(templateId: String, fields: Map<Int, String> = emptyMap(), namedValues: Map<String, String> = emptyMap(), failOnErrors: Boolean = false): Result<PrintResponse> {
+        val template = templateCache[templateId] ?: throw TemplateNotRegisteredException(templateId)
+        return printWithSelectedPrinter(failOnErrors) { connection -> ZplPrinter.printTemplate(connection, template, fields, namedValues) }
+    }
+
+    /**
+     * Prints the registered template [templateId] as a format stored on the printer: the template is uploaded with
+     * `^DF` the first time it is used on a printer (or after it changed), then only the `^XF` recall job with [fields]
+     * is sent. The template can only use `^FN` fields.
+     */
+    suspend fun printStoredTemplateWithSelectedPrinter(templateId: String, fields: Map<Int, String>, failOnErrors: Boolean = false): Result<PrintResponse> {
+        val template = templateCache[templateId] ?: throw TemplateNotRegisteredException(templateId)
+        return printWithSelectedPrinter(failOnErrors) { connection -> storedFormatManager.print(connection, template, fields) }
+    }
+
+    /**
+     * Forgets which formats are stored on [printerAddress] (or on every printer), so they are uploaded again.
+     */
+    suspend fun forgetStoredFormats(printerAddress: String? = null) {
+        storedFormatManager.forget(printerAddress)
+    }
+
+    /**
+     * Forgets which graphics are cached on [printerAddress] (or on every printer), so they are stored again.
+     */
+    suspend fun forgetCachedGraphics(printerAddress: String? = null) {
+        storedGraphicManager.forget(printerAddress)
+    }
+
+    /**
+     * Prints [bitmap] at [x], [y], converting it to a 1-bpp graphic and sending it with the smaller of the ZPL ASCII
+     * and Z64 compressions.
+     */
+    suspend fun printBitmapWithSelectedPrinter(bitmap: Bitmap, x: Int = 0, y: Int = 0, dithering: GraphicDithering = GraphicDithering.FLOYD_STEINBERG, failOnErrors: Boolean = false): Result<PrintResponse> {
+        return printWithSelectedPrinter(failOnErrors) { connection ->
+            if (cacheGraphicsOnPrinter) storedGraphicManager.printBitmap(connection, bitmap, x, y, ZplGraphicConverter(dithering))
+            else ZplPrinter.printBitmap(connection, bitmap, x, y, dithering)
+        }
+    }
+
     suspend fun printByteArrayWithSelectedPrinter(byteArray: ByteArray, failOnErrors: Boolean = false): Result<PrintResponse> {
         return printWithSelectedPrinter(failOnErrors) { connection -> ZplPrinter.printByteArray(connection, byteArray) }
     }
 
+    /**
+     * Prints [file] streaming it from a memory mapping, so its size is not bound by the available heap. Meant for large
+     * jobs like pre-rendered graphics.
+     */
+    suspend fun printFileWithSelectedPrinter(file: File, failOnErrors: Boolean = false): Result<PrintResponse> {
+        return printWithSelectedPrinter(failOnErrors) { connection -> ZplPrinter.printFile(connection, file) }
+    }
+
+    /**
+     * Prints the stream returned by [openStream] in bounded chunks. The function is called again, and the stream it
+     * returned closed, every time the job has to be retried on a new connection or printer.
+     */
+    suspend fun printStreamWithSelectedPrinter(openStream: () -> InputStream, failOnErrors: Boolean = false): Result<PrintResponse> {
+        return printWithSelectedPrinter(failOnErrors) { connection -> openStream().use { ZplPrinter.printStream(connection, it) } }
+    }
+
+    suspend fun printByteBufferWithSelectedPrinter(byteBuffer: ByteBuffer, failOnErrors: Boolean = false): Result<PrintResponse> {
+        return printWithSelectedPrinter(failOnErrors) { connection -> ZplPrinter.printByteBuffer(connection, byteBuffer) }
+    }
+
+    /**
+     * Prints every label of [zplList] on the selected printer with a single permission check, status read and
+     * connection, coalescing the labels into as few writes as [maxBatchBytes] allows. Errors happening before any
+     * label was written fail the whole batch like the single label functions do; afterwards every label gets its
+     * own [PrintResult].
+     *
+     * Labels are confirmed one write at a time, so delivery is at least once: a label is [PrintResult.Printed] only
+     * if the whole write carrying it succeeded, while the printer may have received part of a failed write. When the
+     * connection is reacquired the batch resumes from the first unconfirmed label, so the labels of the failed write
+     * (up to [maxBatchBytes] bytes of them) may come out twice; the same holds when reprinting the labels reported as
+     * [PrintResult.Failed].
+     */
+    suspend fun printZplBatchWithSelectedPrinter(zplList: List<String>, failOnErrors: Boolean = false): Result<List<PrintResult>> {
+        return printByteArrayBatchWithSelectedPrinter(zplList.map { zplEncoder.encode(it) }, failOnErrors)
+    }
+
+    suspend fun printByteArrayBatchWithSelectedPrinter(byteArrays: List<ByteArray>, failOnErrors: Boolean = false): Result<List<PrintResult>> {
+        return withContext(Dispatchers.IO) {
+            activity?.get()?.let { checkPermissions(it) } ?: throw ActivityNotSetException()
+            val printer = loadSelectedPrinter()
+
+            printBatch(printer, byteArrays, 0, failOnErrors)
+        }
+    }
+
+    /**
+     * Streaming version of [printZplBatchWithSelectedPrinter]: the labels already available when the previous write
+     * completes are coalesced into the next one, and their results are emitted as soon as they are written.
+     */
+    fun printZplBatchWithSelectedPrinter(zplFlow: Flow<String>, failOnErrors: Boolean = false): Flow<PrintResult> {
+        return printByteArrayBatchWithSelectedPrinter(zplFlow.map { zplEncoder.encode(it) }, failOnErrors)
+    }
+
+    fun printByteArrayBatchWithSelectedPrinter(byteArrayFlow: Flow<ByteArray>, failOnErrors: Boolean = false): Flow<PrintResult> {
+        return channelFlow {
+            activity?.get()?.let { checkPermissions(it) } ?: throw ActivityNotSetException()
+            var printer = loadSelectedPrinter()
+
+            val input = byteArrayFlow.produceIn(this)
+            var index = 0
+            for (first in input) {
+                val batch = arrayListOf(first)
+                var batchBytes = first.size
+                while (batchBytes < maxBatchBytes) {
+                    val next = input.tryReceive().getOrNull() ?: break
+                    batch.add(next)
+                    batchBytes += next.size
+                }
+                val firstIndex = index
+                val result = printBatch(printer, batch, firstIndex, failOnErrors)
+                val results = result.getOrElse { error -> batch.indices.map { PrintResult.Failed(firstIndex + it, error) } }
+                results.forEach { send(it) }
+                index += batch.size
+
+                // Discovery may have picked another printer: the next batches go to the one selected now
+                if (result.isFailure || results.any { it is PrintResult.Printed && it.response.printerAddress != printer?.address }) {
+                    printer = loadSelectedPrinter()
+                }
+            }
+        }.flowOn(Dispatchers.IO)
+    }
+
+    private suspend fun printBatch(printer: Printer?, byteArrays: List<ByteArray>, firstIndex: Int, failOnErrors: Boolean): Result<List<PrintResult>> {
+        if (byteArrays.isEmpty()) return Result.success(emptyList())
+        var written = 0
+        val printAction: suspend (Connection) -> Unit = { connection ->
+            ZplPrinter.printByteArrays(connection, byteArrays.subList(written, byteArrays.size), maxBatchBytes) { count -> written += count }
+        }
+        val result = try {
+            tryPrint(printerAddress = printer?.address, printerName = printer?.friendlyName, printerType = printer?.type, failOnErrors = failOnErrors, printAction = printAction)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            if (written == 0) throw e
+            Result.failure(e)
+        }
+        val response = result.getOrNull()
+        if (response != null && written == byteArrays.size) {
+            return Result.success(byteArrays.indices.map { PrintResult.Printed(firstIndex + it, response) })
+        }
+        if (written == 0) return Result.failure(result.exceptionOrNull() ?: PrintErrorException())
+
+        // The labels already written went to the printer selected last, as discovery saves it before printing
+        val printedOn = loadSelectedPrinter()
+        val printedResponse = PrintResponse(printerName = printedOn?.friendlyName, printerAddress = printedOn?.address ?: printer?.address ?: "")
+        val error = result.exceptionOrNull() ?: PrintErrorException()
+        return Result.success(byteArrays.indices.map {
+            if (it < written) PrintResult.Printed(firstIndex + it, printedResponse)
+            else PrintResult.Failed(firstIndex + it, error)
+        })
+    }
+
+    /**
+     * Stores the job on disk and returns its id right away. Queued jobs are printed in order in the background on the
+     * selected printer, retrying while the printer is not reachable or not ready; no dialog is ever shown, so a
+     * printer must have been selected already. Jobs still queued when the process dies are printed the next time
+     * [setActivity] is called.
+     */
+    suspend fun enqueueZplWithSelectedPrinter(zpl: String): String {
+        return spooler.enqueue(zplEncoder.encode(zpl))
+    }
+
+    suspend fun enqueueTemplateWithSelectedPrinter(templateName: String, data: Map<Int, String>): String {
+        return spooler.enqueue(templateName, data)
+    }
+
+    suspend fun enqueueByteArrayWithSelectedPrinter(byteArray: ByteArray): String {
+        return spooler.enqueue(byteArray)
+    }
+
+    /**
+     * States of the queued job [jobId], starting from its latest one and completing after its final state, even if
+     * the job finished before collecting.
+     */
+    fun printJobStates(jobId: String): Flow<PrintJobState> {
+        return spooler.jobStates(jobId)
+    }
+
+    /**
+     * Removes a queued job. Returns false if the job is being written to the printer or is not queued anymore.
+     */
+    suspend fun cancelPrintJob(jobId: String): Boolean {
+        return spooler.cancel(jobId)
+    }
+
+    suspend fun pendingPrintJobIds(): List<String> {
+        return spooler.pendingJobIds()
+    }
+
+    private suspend fun printQueuedJob(printAction: suspend (Connection) -> Unit): Result<PrintResponse> {
+        return withContext(Dispatchers.IO) {
+            context?.let { checkPermissions(it) } ?: throw ActivityNotSetException()
+            val printer = loadSelectedPrinter()
+
+            tryPrint(printerAddress = printer?.address, printerName = printer?.friendlyName, printerType = printer?.type, failOnErrors = true, printAction = printAction)
+        }
+    }
+
     private suspend fun printWithSelectedPrinter(failOnErrors: Boolean = false, printAction: suspend (Connection) -> Unit): Result<PrintResponse> {
         return withContext(Dispatchers.IO) {
             activity?.get()?.let { checkPermissions(it) } ?: throw ActivityNotSetException()
@@ -86,10 +438,10 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
                     else {
                         val exception = printResult.exceptionOrNull() ?: PrintErrorException()
                         if (failOnErrors || exception is PrinterNotReadyToPrintException) throw exception
-                        else searchPrinterThenPrint(printAction = printAction)
+                        else reacquireThenPrint(printerName = printerName, printerAddress = printerAddress, printerType = printerType, printAction = printAction)
                     }
                 } catch (e: ConnectionException) {
-                    if (failOnErrors.not()) searchPrinterThenPrint(printAction = printAction)
+                    if (failOnErrors.not()) reacquireThenPrint(printerName = printerName, printerAddress = printerAddress, printerType = printerType, printAction = printAction)
                     else throw PrinterNotReachableException()
                 }
             } else if (failOnErrors.not()) {
@@ -100,6 +452,23 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
         }
     }
 
+    /**
+     * Probes the printer that just failed for a few seconds and prints on it again if it answers, so a printer briefly
+     * out of range does not cost a full discovery.
+     */
+    private suspend fun reacquireThenPrint(printerName: String?, printerAddress: String, printerType: PrinterType?, printAction: suspend (Connection) -> Unit): Result<PrintResponse> {
+        val start = System.currentTimeMillis()
+        if (printerReacquirer.reacquire(printerAddress, printerType)) {
+            val printResult = print(printerName = printerName, printerAddress = printerAddress, printerType = printerType, printAction = printAction)
+            if (printResult.isSuccess) {
+                printerReacquirer.recordRecovery(System.currentTimeMillis() - start)
+                return printResult
+            }
+            Timber.d("Printer $printerAddress reacquired but the job failed again: ${printResult.exceptionOrNull()}")
+        }
+        return searchPrinterThenPrint(printAction = printAction)
+    }
+
     @SuppressLint("MissingPermission")
     private suspend fun searchPrinterThenPrint(printAction: suspend (Connection) -> Unit): Result<PrintResponse> {
         withContext(Dispatchers.Main) {
@@ -109,6 +478,7 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
         val printer: Printer? = searchPrinter()
         printer?.let {
             saveSelectedPrinter(it)
+            recordSelectedPrinter(it)
             return print(printerName = it.friendlyName, printerAddress = it.address, printerType = it.type, printAction = printAction)
         } ?: throw PrinterDiscoveryCancelledException()
     }
@@ -124,45 +494,36 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
 
         printer?.let {
             saveSelectedPrinter(it)
+            recordSelectedPrinter(it)
             return Result.success(true)
         } ?: throw PrinterDiscoveryCancelledException()
     }
 
+    /**
+     * Shows the printers as discovery finds them, refreshing the list at most every
+     * [PRINTER_LIST_UPDATE_INTERVAL_MILLIS], and returns the one picked. Discovery is stopped as soon as a printer is
+     * picked.
+     */
     private suspend fun searchPrinter(): Printer? {
-        var printer: Printer? = null
+        val selection = CompletableDeferred<Printer>()
         try {
-            discoverPrinters().onEach { progress ->
-                Timber.d("ON EACH: New printer list received: ${progress.printerList.joinToString(", ") { it.address }}")
-                withContext(Dispatchers.Main) { updatePrinterListDialog(progress) }
-            }
-                    .buffer(
-                            capacity = 0,
-                            onBufferOverflow = BufferOverflow.DROP_OLDEST
-                    )
-                    .takeWhile {
-                        printer == null
-                    }
-                    .collect { printerList ->
-                        Timber.d("COLLECT: New printer list received: ${printerList.printerList.joinToString(", ") { it.address }}")
-                        if (printer == null) {
-                            Timber.d("COLLECT: Showing printer list dialog")
-                            withContext(Dispatchers.Main) {
-                                printer = activity?.get()?.let { showPrinterListDialog(it, printerList) }
+            return coroutineScope {
+                val discovery = launch {
+                    discoverPrinters().throttle(PRINTER_LIST_UPDATE_INTERVAL_MILLIS).collect { progress ->
+                        Timber.d("New printer list received: ${progress.printerList.size} printers, ${progress.changes.size} changes")
+                        withContext(Dispatchers.Main) {
+                            if (updatePrinterListDialog(progress).not()) {
+                                activity?.get()?.let { showPrinterListDialog(it, progress, selection) }
                                         ?: throw ActivityNotSetException()
                             }
-                        } else {
-                            Timber.d("COLLECT: skipping printer list dialog")
-                            activity?.get()?.let { showProgressDialog(it, printerList) }
-                                    ?: throw ActivityNotSetException()
                         }
                     }
-        } catch (e: Exception) {
-            sharedDialog?.dismiss()
-            throw e
+                }
+                selection.await().also { discovery.cancel() }
+            }
         } finally {
             sharedDialog?.dismiss()
         }
-        return printer
     }
 
 
@@ -171,56 +532,30 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
     }
 
     private var sharedDialog: AlertDialog? = null
-    private suspend fun showPrinterListDialog(activity: AppCompatActivity, progress: PrinterDiscoveryProgress): Printer {
-        return suspendCancellableCoroutine<Printer> { continuation ->
-            if (updatePrinterListDialog(progress).not()) {
-                Timber.d("Showing printer list dialog with ${progress.printerList.size} printers")
-                sharedDialog?.dismiss()
-
-                val builder = MaterialAlertDialogBuilder(activity)
-                        .setBackgroundInsetTop(activity.resources.getDimensionPixelSize(R.dimen.dialog_vertical_margin))
-                        .setBackgroundInsetBottom(activity.resources.getDimensionPixelSize(R.dimen.dialog_vertical_margin))
-
-                val titleView = LayoutInflater.from(activity).inflate(R.layout.view_printer_discovery_title, null)
-                titleView.findViewById<TextView>(R.id.discovery_title).setText(R.string.select_printer)
-                builder.setCustomTitle(titleView)
-
-                val discoveredPrinterAdapter = DiscoveredPrinterAdapter(activity, arrayListOf()) { printer ->
-                    continuation.resume(printer)
-                    sharedDialog?.dismiss()
-                }
-                builder.setAdapter(discoveredPrinterAdapter) { dialog, _ ->
-                    dialog.dismiss()
-                }
-                builder.setCancelable(true)
-                builder.setOnCancelListener { continuation.resumeWithException(PrinterDiscoveryCancelledException()) }
-                continuation.invokeOnCancellation { sharedDialog?.dismiss() }
-                sharedDialog = builder.show()
-
-                updatePrinterListDialog(progress)
-            }
-        }
-    }
-
-    private suspend fun showProgressDialog(activity: AppCompatActivity, progress: PrinterDiscoveryProgress): Printer {
-        return suspendCancellableCoroutine<Printer> { continuation ->
-            if (updatePrinterListDialog(progress).not()) {
-                Timber.d("Showing progress dialog")
-                sharedDialog?.dismiss()
+    private fun showPrinterListDialog(activity: AppCompatActivity, progress: PrinterDiscoveryProgress, selection: CompletableDeferred<Printer>) {
+        Timber.d("Showing printer list dialog with ${progress.printerList.size} printers")
+        sharedDialog?.dismiss()
 
-                val builder = MaterialAlertDialogBuilder(activity)
-                        .setBackgroundInsetTop(activity.resources.getDimensionPixelSize(R.dimen.dialog_vertical_margin))
-                        .setBackgroundInsetBottom(activity.resources.getDimensionPixelSize(R.dimen.dialog_vertical_margin))
+        val builder = MaterialAlertDialogBuilder(activity)
+                .setBackgroundInsetTop(activity.resources.getDimensionPixelSize(R.dimen.dialog_vertical_margin))
+                .setBackgroundInsetBottom(activity.resources.getDimensionPixelSize(R.dimen.dialog_vertical_margin))
 
-                val view = LayoutInflater.from(activity).inflate(R.layout.dialog_progress, null)
+        val titleView = LayoutInflater.from(activity).inflate(R.layout.view_printer_discovery_title, null)
+        titleView.findViewById<TextView>(R.id.discovery_title).setText(R.string.select_printer)
+        builder.setCustomTitle(titleView)
 
-                view.findViewById<TextView>(R.id.progress_message).text = progress.message?.format(activity)
-                builder.setView(view)
-                builder.setCancelable(false)
-                continuation.invokeOnCancellation { sharedDialog?.dismiss() }
-                sharedDialog = builder.show()
-            }
+        val discoveredPrinterAdapter = DiscoveredPrinterAdapter(activity, arrayListOf()) { printer ->
+            selection.complete(printer)
+            sharedDialog?.dismiss()
         }
+        builder.setAdapter(discoveredPrinterAdapter) { dialog, _ ->
+            dialog.dismiss()
+        }
+        builder.setCancelable(true)
+        builder.setOnCancelListener { selection.completeExceptionally(PrinterDiscoveryCancelledException()) }
+        sharedDialog = builder.show()
+
+        updatePrinterListDialog(progress)
     }
 
     private fun updatePrinterListDialog(progress: PrinterDiscoveryProgress): Boolean {
@@ -238,11 +573,7 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
         val adapter = sharedDialog?.listView?.adapter
         return if (adapter != null && adapter is DiscoveredPrinterAdapter) {
 
-            Timber.d("Updating printer list dialog with ${progress.printerList.size} printers")
-            adapter.setNotifyOnChange(false)
-            adapter.clear()
-            adapter.addAll(progress.printerList)
-            adapter.notifyDataSetChanged()
+            adapter.update(progress)
             true
         } else false
     }
@@ -256,10 +587,10 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
         sharedDialog = builder.show()
     }
 
-    private fun checkPermissions(activity: AppCompatActivity): Boolean {
+    private fun checkPermissions(context: Context): Boolean {
         val notGrantedPermissions = arrayListOf<String>()
         getPermissionRequired().forEach { permission ->
-            if (ContextCompat.checkSelfPermission(activity, permission) != PackageManager.PERMISSION_GRANTED) {
+            if (ContextCompat.checkSelfPermission(context, permission) != PackageManager.PERMISSION_GRANTED) {
                 notGrantedPermissions.add(permission)
             }
         }
@@ -282,9 +613,26 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
         return selectedPrinterRepo.savePrinter(printer)
     }
 
+    private suspend fun recordSelectedPrinter(printer: Printer) {
+        if (useDiscoveryCache.not()) return
+        try {
+            discoveryCache.recordSelected(printer)
+        } catch (e: Exception) {
+            Timber.w(e, "Cannot update the discovered printers cache")
+        }
+    }
+
+    /**
+     * Forgets the printers remembered from previous discoveries.
+     */
+    suspend fun clearDiscoveryCache() {
+        discoveryCache.clear()
+    }
+
     private suspend fun discoverPrinters(filter: DeviceFilter? = null): Flow<PrinterDiscoveryProgress> {
         return withContext(Dispatchers.IO) {
-            printerFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices, searchOnNetwork, searchOnBluetooth, searchOnBle)
+            val cache = if (useDiscoveryCache) discoveryCache else null
+            printerFinder.discoverPrinters(filter, useStrictFilteringForGenericDevices, searchOnNetwork, searchOnBluetooth, searchOnBle, discoveryMode, discoveryTimeBudgets, cache, networkDiscoveryMode)
         }
     }
 
@@ -303,48 +651,58 @@ class ZebraPrint(var useStrictFilteringForGenericDevices: Boolean = false, var s
     private suspend fun print(printerName: String?, printerAddress: String, printerType: PrinterType?, printAction: suspend (Connection) -> Unit): Result<PrintResponse> {
         return withContext(Dispatchers.IO) {
             try {
-                val statusResult = readPrinterStatus(printerAddress, printerType)
-                val status = statusResult.getOrThrow()
+                val status = statusCache.get(printerAddress)?.also { Timber.d("Using cached printer status for $printerAddress") }
+                        ?: readPrinterStatus(printerAddress, printerType).getOrThrow().also { statusCache.put(printerAddress, it) }
                 if (status.isReadyToPrint) {
                     try {
                         actuallyPrint(printAction, printerAddress, printerName, printerType, false)
+                        statusCache.refresh(printerAddress)
                     } catch (e: Throwable) {
-                        if (e is ConnectionException) {
-                            Timber.e("Print failed with ConnectionException")
-                            actuallyPrint(printAction, printerAddress, printerName, printerType, true)
-                        } else {
-                            Result.failure<PrintResponse>(e)
-                        }
+                        statusCache.invalidate(printerAddress)
+                        // Anything but a dropped connection is a real failure: the outer catch reports it
+                        if (e !is ConnectionException) throw e
+                        Timber.e("Print failed with ConnectionException")
+                        actuallyPrint(printAction, printerAddress, printerName, printerType, true)
                     }
                     Result.success(PrintResponse(printerName = printerName, printerAddress = printerAddress))
                 } else {
                     Result.failure(PrinterNotReadyToPrintException(status))
                 }
+            } catch (e: CancellationException) {
+                throw e
             } catch (e: Exception) {
+                statusCache.invalidate(printerAddress)
                 Result.failure(e)
             }
         }
     }
 
     private suspend fun actuallyPrint(printAction: suspend (Connection) -> Unit, printerAddress: String, printerName: String?, printerType: PrinterType?, forceReconnection: Boolean) {
-        printAction(connectionHandler.getConnectionToAddress(context = context, address = printerAddress, printerType = printerType, forceReconnection = forceReconnection))
-        Result.success(PrintResponse(printerName = printerName, printerAddress = printerAddress))
+        connectionHandler.withConnection(context = context, address = printerAddress, printerType = printerType, forceReconnection = forceReconnection) { connection ->
+            connection.printJob { printAction(connection) }
+        }
     }
 
     private suspend fun readPrinterStatus(address: String, printerType: PrinterType?): Result<PrinterState> {
         return withContext(Dispatchers.IO) {
-            val result = StatusReader.readPrinterState(connectionHandler.getConnectionToAddress(context = context, address = address, printerType = printerType, forceReconnection = false))
+            val result = connectionHandler.withConnection(context = context, address = address, printerType = printerType, forceReconnection = false) { StatusReader.readPrinterState(it) }
             if (result.isFailure && result.exceptionOrNull() is ConnectionException) {
                 Timber.e("Read printer status failed with ConnectionException")
                 result.exceptionOrNull()?.printStackTrace()
-                StatusReader.readPrinterState(connectionHandler.getConnectionToAddress(context = context, address = address, printerType = printerType, forceReconnection = true))
+                connectionHandler.withConnection(context = context, address = address, printerType = printerType, forceReconnection = true) { StatusReader.readPrinterState(it) }
             } else result
         }
     }
 
     suspend fun closeConnections() {
         return withContext(Dispatchers.IO) {
+            statusCache.clear()
             connectionHandler.closeConnections()
         }
     }
+
+    companion object {
+        const val DEFAULT_MAX_BATCH_BYTES = 32 * 1024
+        private const val PRINTER_LIST_UPDATE_INTERVAL_MILLIS = 250L
+    }
 }
\ No newline at end of file
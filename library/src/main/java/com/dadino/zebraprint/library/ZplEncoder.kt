@@ -0,0 +1,226 @@
+package com.dadino.zebraprint.library
+
+import com.zebra.sdk.comm.Connection
+import java.io.ByteArrayOutputStream
+import java.util.WeakHashMap
+
+/**
+ * Code pages the [ZplEncoder] can write, selected in ZPL with `^CI`.
+ */
+enum class ZplCodePage {
+	ASCII,
+	CP850,
+	WINDOWS_1252,
+	UTF_8;
+
+	companion object {
+		/**
+		 * Code page selected by `^CI[value]`, or null if the encoder does not support it.
+		 */
+		fun fromCiValue(value: Int): ZplCodePage? {
+			return when (value) {
+				in 0..13 -> CP850
+				27       -> WINDOWS_1252
+				28       -> UTF_8
+				else     -> null
+			}
+		}
+	}
+}
+
+/**
+ * Encodes ZPL strings straight into a reusable byte buffer, flushing it to the connection every time it fills up,
+ * so printing a label allocates nothing. `^CI` commands found in the data switch the code page of the characters
+ * that follow, like the printer does; characters the current code page cannot represent are written as `?`.
+ *
+ * Writes through the same encoder are serialized; use [forConnection] to get the one bound to a connection.
+ */
+class ZplEncoder(bufferSize: Int = DEFAULT_BUFFER_SIZE) {
+	private val buffer = ByteArray(bufferSize.coerceAtLeast(MIN_BUFFER_SIZE))
+	private var length = 0
+
+	@Synchronized
+	fun write(connection: Connection, zpl: CharSequence, initialCodePage: ZplCodePage = ZplCodePage.UTF_8) {
+		try {
+			encode(zpl, initialCodePage) { flush(connection) }
+			flush(connection)
+		} finally {
+			length = 0
+		}
+	}
+
+	/**
+	 * Encodes [zpl] into a new array, for the jobs that are not written to a connection right away.
+	 */
+	fun encode(zpl: CharSequence, initialCodePage: ZplCodePage = ZplCodePage.UTF_8): ByteArray {
+		return encodeToByteArray(zpl, initialCodePage).first
+	}
+
+	/**
+	 * Encodes [text] into a new array, returning it together with the code page in effect at its end.
+	 */
+	@Synchronized
+	internal fun encodeToByteArray(text: CharSequence, initialCodePage: ZplCodePage): Pair<ByteArray, ZplCodePage> {
+		val output = ByteArrayOutputStream(text.length)
+		try {
+			val codePage = encode(text, initialCodePage) {
+				output.write(buffer, 0, length)
+				length = 0
+			}
+			output.write(buffer, 0, length)
+			return output.toByteArray() to codePage
+		} finally {
+			length = 0
+		}
+	}
+
+	/**
+	 * Appends already encoded bytes, writing them straight to the connection if they do not fit in the buffer.
+	 * Callers appending several parts must hold the encoder lock and end with [flush].
+	 */
+	internal fun append(connection: Connection, bytes: ByteArray) {
+		if (bytes.size > buffer.size - length) flush(connection)
+		if (bytes.size > buffer.size) {
+			connection.write(bytes)
+		} else {
+			System.arraycopy(bytes, 0, buffer, length, bytes.size)
+			length += bytes.size
+		}
+	}
+
+	/**
+	 * Appends [text] encoded starting with [codePage], returning the code page in effect after it.
+	 */
+	internal fun append(connection: Connection, text: CharSequence, codePage: ZplCodePage): ZplCodePage {
+		return encode(text, codePage) { flush(connection) }
+	}
+
+	internal fun flush(connection: Connection) {
+		if (length == 0) return
+		try {
+			connection.write(buffer, 0, length)
+		} finally {
+			length = 0
+		}
+	}
+
+	/**
+	 * Encodes [text] into the buffer, calling [flush] whenever it is full; [flush] has to empty the buffer.
+	 *
+	 * @return the code page in effect after the last character
+	 */
+	private inline fun encode(text: CharSequence, initialCodePage: ZplCodePage, flush: () -> Unit): ZplCodePage {
+		var codePage = initialCodePage
+		val end = text.length
+		var i = 0
+		while (i < end) {
+			val c = text[i]
+			if (c == '^' && i + 2 < end && text[i + 1] == 'C' && text[i + 2] == 'I') {
+				codePage = parseCodePage(text, i + 3) ?: codePage
+			}
+			if (c.code < 0x80) {
+				if (length == buffer.size) flush()
+				buffer[length++] = c.code.toByte()
+				i++
+			} else if (codePage == ZplCodePage.UTF_8) {
+				if (buffer.size - length < 4) flush()
+				i = writeUtf8(text, i)
+			} else {
+				if (length == buffer.size) flush()
+				buffer[length++] = encodeSingleByte(c, codePage)
+				i++
+			}
+		}
+		return codePage
+	}
+
+	private fun writeUtf8(text: CharSequence, index: Int): Int {
+		val c = text[index]
+		val code = c.code
+		if (code < 0x800) {
+			buffer[length++] = (0xC0 or (code shr 6)).toByte()
+			buffer[length++] = (0x80 or (code and 0x3F)).toByte()
+		} else if (Character.isSurrogate(c)) {
+			if (Character.isHighSurrogate(c) && index + 1 < text.length && Character.isLowSurrogate(text[index + 1])) {
+				val codePoint = Character.toCodePoint(c, text[index + 1])
+				buffer[length++] = (0xF0 or (codePoint shr 18)).toByte()
+				buffer[length++] = (0x80 or ((codePoint shr 12) and 0x3F)).toByte()
+				buffer[length++] = (0x80 or ((codePoint shr 6) and 0x3F)).toByte()
+				buffer[length++] = (0x80 or (codePoint and 0x3F)).toByte()
+				return index + 2
+			}
+			buffer[length++] = UNMAPPABLE
+		} else {
+			buffer[length++] = (0xE0 or (code shr 12)).toByte()
+			buffer[length++] = (0x80 or ((code shr 6) and 0x3F)).toByte()
+			buffer[length++] = (0x80 or (code and 0x3F)).toByte()
+		}
+		return index + 1
+	}
+
+	private fun parseCodePage(zpl: CharSequence, start: Int): ZplCodePage? {
+		var value = 0
+		var i = start
+		while (i < zpl.length && zpl[i] in '0'..'9' && i - start < 3) {
+			value = value * 10 + (zpl[i] - '0')
+			i++
+		}
+		return if (i == start) null else ZplCodePage.fromCiValue(value)
+	}
+
+	private fun encodeSingleByte(c: Char, codePage: ZplCodePage): Byte {
+		val table = when (codePage) {
+			ZplCodePage.CP850        -> CP850_TABLE
+			ZplCodePage.WINDOWS_1252 -> WINDOWS_1252_TABLE
+			else                     -> return UNMAPPABLE
+		}
+		val encoded = if (c.code < table.size) table[c.code] else 0
+		return if (encoded.toInt() == 0) UNMAPPABLE else encoded
+	}
+
+	companion object {
+		const val DEFAULT_BUFFER_SIZE = 4096
+		private const val MIN_BUFFER_SIZE = 16
+		private const val UNMAPPABLE = '?'.code.toByte()
+
+		private const val CP850_UPPER_HALF =
+			"ÇüéâäàåçêëèïîìÄÅ" +
+					"ÉæÆôöòûùÿÖÜø£Ø×ƒ" +
+					"áíóúñÑªº¿®¬½¼¡«»" +
+					"░▒▓│┤ÁÂÀ©╣║╗╝¢¥┐" +
+					"└┴┬├─┼ãÃ╚╔╩╦╠═╬¤" +
+					"ðÐÊËÈıÍÎÏ┘┌█▄¦Ì▀" +
+					"ÓßÔÒõÕµþÞÚÛÙýÝ¯´" +
+					"\u00AD±‗¾¶§÷¸°¨·¹³²■\u00A0"
+
+		// 0x80-0x9F, the rest of the upper half matches ISO 8859-1; unassigned bytes are mapped to U+0000
+		private const val WINDOWS_1252_CONTROL_RANGE =
+			"€\u0000‚ƒ„…†‡ˆ‰Š‹Œ\u0000Ž\u0000" +
+					"\u0000‘’“”•–—˜™š›œ\u0000žŸ"
+
+		private val CP850_TABLE: ByteArray = reverseTable(CP850_UPPER_HALF)
+		private val WINDOWS_1252_TABLE: ByteArray = reverseTable(WINDOWS_1252_CONTROL_RANGE + (0xA0..0xFF).map { it.toChar() }.joinToString(""))
+
+		/**
+		 * Lookup table from a char to the byte (0x80-0xFF) encoding it, 0 meaning not representable.
+		 */
+		private fun reverseTable(upperHalf: String): ByteArray {
+			val table = ByteArray(upperHalf.maxOf { it.code } + 1)
+			upperHalf.forEachIndexed { index, c ->
+				if (c.code != 0) table[c.code] = (0x80 + index).toByte()
+			}
+			return table
+		}
+
+		private val encoders = WeakHashMap<Connection, ZplEncoder>()
+
+		/**
+		 * Returns the encoder reusing its buffer for every job written to [connection].
+		 */
+		fun forConnection(connection: Connection): ZplEncoder {
+			synchronized(encoders) {
+				return encoders.getOrPut(connection) { ZplEncoder() }
+			}
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package com.dadino.zebraprint.library
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.util.Base64
+import android.util.Base64OutputStream
+import com.zebra.sdk.comm.Connection
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+
+enum class GraphicDithering {
+	THRESHOLD,
+	FLOYD_STEINBERG
+}
+
+enum class GraphicCompression {
+	ACS,
+	Z64
+}
+
+/**
+ * Converts bitmaps to ZPL graphic data: the image is reduced to 1 bit per pixel (by [threshold] or with
+ * Floyd-Steinberg dithering) one row at a time, then encoded both with the ZPL ASCII compression (ACS) and as `:Z64:`
+ * (deflate + base64 + CRC), writing whichever is smaller.
+ *
+ * The raster is never held in memory: a first pass feeds the rows to the deflater while measuring the ACS output, and
+ * if ACS wins a second pass rasterizes the rows again straight into the output. Only the deflated data and two rows
+ * of pixels are kept.
+ */
+class ZplGraphicConverter(
+	var dithering: GraphicDithering = GraphicDithering.FLOYD_STEINBERG,
+	var threshold: Int = DEFAULT_THRESHOLD
+) {
+
+	/**
+	 * Writes [bitmap] as a `^GFA` graphic field.
+	 */
+	fun writeGraphicField(bitmap: Bitmap, output: OutputStream): GraphicCompression {
+		return write(bitmap, output) { totalBytes, bytesPerRow, _ -> "^GFA,$totalBytes,$totalBytes,$bytesPerRow," }
+	}
+
+	/**
+	 * Writes [bitmap] as a `^XA^FO[x],[y]^GFA...^FS^XZ` label to [connection].
+	 */
+	fun printBitmap(connection: Connection, bitmap: Bitmap, x: Int = 0, y: Int = 0): GraphicCompression {
+		val output = ConnectionOutputStream(connection)
+		output.write("^XA^FO$x,$y".toByteArray(Charsets.US_ASCII))
+		val compression = writeGraphicField(bitmap, output)
+		output.write("^FS^XZ".toByteArray(Charsets.US_ASCII))
+		output.flush()
+		return compression
+	}
+
+	/**
+	 * Writes the header built by [header] from the total size and the row size of the 1-bpp raster and the compression
+	 * chosen, followed by the compressed graphic data.
+	 */
+	fun write(bitmap: Bitmap, output: OutputStream, header: (totalBytes: Int, bytesPerRow: Int, compression: GraphicCompression) -> String): GraphicCompression {
+		val bytesPerRow = (bitmap.width + 7) / 8
+		val totalBytes = bytesPerRow * bitmap.height
+
+		val deflated = ByteArrayOutputStream()
+		val acsLength = CountingOutputStream()
+		val acsEncoder = AcsEncoder(acsLength)
+		val deflater = Deflater(Deflater.BEST_COMPRESSION)
+		try {
+			DeflaterOutputStream(deflated, deflater).use { deflaterOutput ->
+				rasterize(bitmap) { row ->
+					deflaterOutput.write(row)
+					acsEncoder.writeRow(row)
+				}
+			}
+		} finally {
+			deflater.end()
+		}
+		val z64Length = Z64_PREFIX.length + base64Length(deflated.size()) + 1 + 4
+
+		val compression = if (z64Length < acsLength.count) GraphicCompression.Z64 else GraphicCompression.ACS
+		output.write(header(totalBytes, bytesPerRow, compression).toByteArray(Charsets.US_ASCII))
+		return if (compression == GraphicCompression.Z64) {
+			writeZ64(deflated, output)
+			GraphicCompression.Z64
+		} else {
+			val encoder = AcsEncoder(output)
+			rasterize(bitmap) { row -> encoder.writeRow(row) }
+			GraphicCompression.ACS
+		}
+	}
+
+	private fun writeZ64(deflated: ByteArrayOutputStream, output: OutputStream) {
+		output.write(Z64_PREFIX.toByteArray(Charsets.US_ASCII))
+		val crcOutput = Crc16OutputStream(output)
+		Base64OutputStream(NonClosingOutputStream(crcOutput), Base64.NO_WRAP).use { deflated.writeTo(it) }
+		output.write(":%04X".format(crcOutput.crc).toByteArray(Charsets.US_ASCII))
+	}
+
+	/**
+	 * SHA-256 of the pixels of [bitmap], its size and the conversion settings, as uppercase hex, computed row by row.
+	 */
+	fun hash(bitmap: Bitmap): String {
+		val digest = MessageDigest.getInstance("SHA-256")
+		val width = bitmap.width
+		val pixels = IntArray(width)
+		val rowBytes = ByteBuffer.allocate(width * 4)
+		digest.update("${bitmap.width}x${bitmap.height},$dithering,$threshold".toByteArray(Charsets.US_ASCII))
+		for (y in 0 until bitmap.height) {
+			bitmap.getPixels(pixels, 0, width, 0, y, width, 1)
+			rowBytes.clear()
+			rowBytes.asIntBuffer().put(pixels)
+			digest.update(rowBytes.array())
+		}
+		return digest.digest().joinToString("") { "%02X".format(it) }
+	}
+
+	/**
+	 * Calls [onRow] with every row of [bitmap] as 1-bpp data, 1 being a black dot. The array is reused for every row.
+	 */
+	private inline fun rasterize(bitmap: Bitmap, onRow: (ByteArray) -> Unit) {
+		val width = bitmap.width
+		val pixels = IntArray(width)
+		val row = ByteArray((width + 7) / 8)
+		val dither = dithering == GraphicDithering.FLOYD_STEINBERG
+		var errors = IntArray(if (dither) width + 2 else 0)
+		var nextErrors = IntArray(if (dither) width + 2 else 0)
+
+		for (y in 0 until bitmap.height) {
+			bitmap.getPixels(pixels, 0, width, 0, y, width, 1)
+			row.fill(0)
+			for (x in 0 until width) {
+				var luminance = luminance(pixels[x])
+				if (dither) luminance = (luminance + errors[x + 1]).coerceIn(-255, 510)
+				val black = luminance < threshold
+				if (black) row[x shr 3] = (row[x shr 3].toInt() or (0x80 ushr (x and 7))).toByte()
+				if (dither) {
+					val error = luminance - if (black) 0 else 255
+					errors[x + 2] += error * 7 / 16
+					nextErrors[x] += error * 3 / 16
+					nextErrors[x + 1] += error * 5 / 16
+					nextErrors[x + 2] += error / 16
+				}
+			}
+			if (dither) {
+				val swap = errors
+				errors = nextErrors
+				nextErrors = swap
+				nextErrors.fill(0)
+			}
+			onRow(row)
+		}
+	}
+
+	/**
+	 * Luminance of [color] composed over a white background, from 0 (black) to 255 (white).
+	 */
+	private fun luminance(color: Int): Int {
+		val luminance = (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000
+		val alpha = Color.alpha(color)
+		return 255 - (255 - luminance) * alpha / 255
+	}
+
+	private fun base64Length(bytes: Int): Int {
+		return (bytes + 2) / 3 * 4
+	}
+
+	/**
+	 * ZPL ASCII compression of hex rows: runs of the same digit become a repeat count letter, a row ending with zeros
+	 * or ones is closed by `,` or `!`, and a row equal to the previous one is written as `:`.
+	 */
+	private class AcsEncoder(private val output: OutputStream) {
+		private var previous: ByteArray? = null
+
+		fun writeRow(row: ByteArray) {
+			val previous = previous
+			if (previous != null && previous.contentEquals(row)) {
+				output.write(':'.code)
+				return
+			}
+			if (previous == null || previous.size != row.size) this.previous = row.copyOf()
+			else System.arraycopy(row, 0, previous, 0, row.size)
+
+			val digits = row.size * 2
+			var end = digits
+			while (end > 0 && digit(row, end - 1) == 0) end--
+			val fill = if (end < digits) ',' else {
+				while (end > 0 && digit(row, end - 1) == 0xF) end--
+				if (end < digits) '!' else null
+			}
+
+			var i = 0
+			while (i < end) {
+				val value = digit(row, i)
+				var run = 1
+				while (i + run < end && digit(row, i + run) == value) run++
+				if (run > 1) writeCount(run)
+				output.write(HEX_DIGITS[value].code)
+				i += run
+			}
+			if (fill != null) output.write(fill.code)
+		}
+
+		private fun writeCount(count: Int) {
+			var remaining = count
+			while (remaining >= 400) {
+				output.write('z'.code)
+				remaining -= 400
+			}
+			if (remaining >= 20) {
+				output.write('g'.code + remaining / 20 - 1)
+				remaining %= 20
+			}
+			if (remaining > 0) output.write('G'.code + remaining - 1)
+		}
+
+		private fun digit(row: ByteArray, index: Int): Int {
+			val byte = row[index shr 1].toInt()
+			return if (index and 1 == 0) (byte shr 4) and 0xF else byte and 0xF
+		}
+	}
+
+	private class CountingOutputStream : OutputStream() {
+		var count = 0L
+			private set
+
+		override fun write(b: Int) {
+			count++
+		}
+
+		override fun write(b: ByteArray, off: Int, len: Int) {
+			count += len
+		}
+	}
+
+	/**
+	 * Computes the CRC-16-CCITT (XMODEM) of the data written through it, as required by `:Z64:`.
+	 */
+	private class Crc16OutputStream(output: OutputStream) : FilterOutputStream(output) {
+		var crc = 0
+			private set
+
+		override fun write(b: Int) {
+			crc = crc xor ((b and 0xFF) shl 8)
+			repeat(8) {
+				crc = if (crc and 0x8000 != 0) (crc shl 1) xor 0x1021 else crc shl 1
+			}
+			crc = crc and 0xFFFF
+			out.write(b)
+		}
+
+		override fun write(b: ByteArray, off: Int, len: Int) {
+			for (i in off until off + len) {
+				crc = crc xor ((b[i].toInt() and 0xFF) shl 8)
+				repeat(8) {
+					crc = if (crc and 0x8000 != 0) (crc shl 1) xor 0x1021 else crc shl 1
+				}
+				crc = crc and 0xFFFF
+			}
+			out.write(b, off, len)
+		}
+	}
+
+	private class NonClosingOutputStream(output: OutputStream) : FilterOutputStream(output) {
+		override fun write(b: ByteArray, off: Int, len: Int) {
+			out.write(b, off, len)
+		}
+
+		override fun close() {
+			flush()
+		}
+	}
+
+	companion object {
+		const val DEFAULT_THRESHOLD = 128
+		private const val Z64_PREFIX = ":Z64:"
+		private const val HEX_DIGITS = "0123456789ABCDEF"
+	}
+}
+
+/**
+ * Buffers the data written to it and hands it to [connection] in chunks of [bufferSize] bytes.
+ */
+class ConnectionOutputStream(private val connection: Connection, bufferSize: Int = DEFAULT_BUFFER_SIZE) : BufferedOutputStream(object : OutputStream() {
+	override fun write(b: Int) {
+		connection.write(byteArrayOf(b.toByte()))
+	}
+
+	override fun write(b: ByteArray, off: Int, len: Int) {
+		connection.write(b, off, len)
+	}
+}, bufferSize) {
+	companion object {
+		const val DEFAULT_BUFFER_SIZE = 4096
+	}
+}
@@ -1,10 +1,19 @@
 package com.dadino.zebraprint.library
 
+import android.graphics.Bitmap
 import com.zebra.sdk.comm.Connection
 import com.zebra.sdk.printer.ZebraPrinter
-import com.zebra.sdk.printer.ZebraPrinterFactory
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.io.File
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import kotlin.math.min
 
 object ZplPrinter {
 
@@ -12,22 +21,162 @@ object ZplPrinter {
 		return withContext(Dispatchers.IO) {
 			if (printerConnection.isConnected.not()) printerConnection.open()
 
-			printerConnection.write(byteArray)
+			printerConnection.printJob { printerConnection.write(byteArray) }
 		}
 	}
 
-	suspend fun printZPL(printerConnection: Connection, zpl: String) {
+	/**
+	 * Writes [zpl] through the [ZplEncoder] bound to the connection, starting with [codePage] until a `^CI` command
+	 * selects another one.
+	 */
+	suspend fun printZPL(printerConnection: Connection, zpl: String, codePage: ZplCodePage = ZplCodePage.UTF_8) {
 		return withContext(Dispatchers.IO) {
 			if (printerConnection.isConnected.not()) printerConnection.open()
 
-			printerConnection.write(zpl.toByteArray())
+			printerConnection.printJob { ZplEncoder.forConnection(printerConnection).write(printerConnection, zpl, codePage) }
+		}
+	}
+
+	/**
+	 * Streams [inputStream] to the printer in chunks of [chunkSize] bytes, so the job never needs to fit in memory.
+	 * The stream is not closed.
+	 */
+	suspend fun printStream(printerConnection: Connection, inputStream: InputStream, chunkSize: Int = DEFAULT_CHUNK_SIZE) {
+		return withContext(Dispatchers.IO) {
+			if (printerConnection.isConnected.not()) printerConnection.open()
+
+			val buffer = ByteArray(chunkSize)
+			printerConnection.printJob {
+				while (true) {
+					ensureActive()
+					val read = inputStream.read(buffer)
+					if (read < 0) break
+					if (read > 0) printerConnection.write(buffer, 0, read)
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of [byteBuffer] without moving its position. Heap buffers are written straight from
+	 * their backing array, direct and mapped ones are copied through a single chunk of [chunkSize] bytes.
+	 */
+	suspend fun printByteBuffer(printerConnection: Connection, byteBuffer: ByteBuffer, chunkSize: Int = DEFAULT_CHUNK_SIZE) {
+		return withContext(Dispatchers.IO) {
+			if (printerConnection.isConnected.not()) printerConnection.open()
+
+			printerConnection.printJob { writeByteBuffer(printerConnection, byteBuffer.duplicate(), null, chunkSize) }
+		}
+	}
+
+	/**
+	 * Streams [file] to the printer through read-only memory mappings of at most [MAP_WINDOW_SIZE] bytes, so the
+	 * heap used is a single chunk of [chunkSize] bytes whatever the size of the file.
+	 */
+	suspend fun printFile(printerConnection: Connection, file: File, chunkSize: Int = DEFAULT_CHUNK_SIZE) {
+		return withContext(Dispatchers.IO) {
+			if (printerConnection.isConnected.not()) printerConnection.open()
+
+			val chunk = ByteArray(chunkSize)
+			RandomAccessFile(file, "r").use { randomAccessFile ->
+				val channel = randomAccessFile.channel
+				val size = channel.size()
+				var position = 0L
+				printerConnection.printJob {
+					while (position < size) {
+						val window = min(MAP_WINDOW_SIZE, size - position)
+						writeByteBuffer(printerConnection, channel.map(FileChannel.MapMode.READ_ONLY, position, window), chunk, chunkSize)
+						position += window
+					}
+				}
+			}
+		}
+	}
+
+	private fun CoroutineScope.writeByteBuffer(printerConnection: Connection, source: ByteBuffer, chunk: ByteArray?, chunkSize: Int) {
+		if (source.hasArray()) {
+			printerConnection.write(source.array(), source.arrayOffset() + source.position(), source.remaining())
+			return
+		}
+		val buffer = chunk ?: ByteArray(min(chunkSize, source.remaining()))
+		while (source.hasRemaining()) {
+			ensureActive()
+			val length = min(buffer.size, source.remaining())
+			source.get(buffer, 0, length)
+			printerConnection.write(buffer, 0, length)
+		}
+	}
+
+	/**
+	 * Writes [byteArrays] coalescing consecutive payloads into writes of at most [maxBatchBytes] bytes; a payload
+	 * larger than that is written on its own. [onWritten] receives the number of payloads of each write once the
+	 * whole write succeeded.
+	 *
+	 * Delivery is at least once per write: when a write fails the printer may already have received part of it, yet
+	 * none of its payloads is reported. A caller resuming from the reported count may print again the labels of the
+	 * failed write, that is up to [maxBatchBytes] bytes of labels (or the single oversized payload).
+	 */
+	suspend fun printByteArrays(printerConnection: Connection, byteArrays: List<ByteArray>, maxBatchBytes: Int, onWritten: (Int) -> Unit) {
+		return withContext(Dispatchers.IO) {
+			if (printerConnection.isConnected.not()) printerConnection.open()
+
+			val buffer = ByteArray(min(maxBatchBytes, byteArrays.sumOf { it.size }).coerceAtLeast(0))
+			var length = 0
+			var pending = 0
+			printerConnection.printJob {
+				for (bytes in byteArrays) {
+					if (pending > 0 && length + bytes.size > buffer.size) {
+						printerConnection.write(buffer, 0, length)
+						onWritten(pending)
+						length = 0
+						pending = 0
+					}
+					if (bytes.size > buffer.size) {
+						printerConnection.write(bytes)
+						onWritten(1)
+					} else {
+						System.arraycopy(bytes, 0, buffer, length, bytes.size)
+						length += bytes.size
+						pending++
+					}
+				}
+				if (pending > 0) {
+					printerConnection.write(buffer, 0, length)
+					onWritten(pending)
+				}
+			}
+		}
+	}
+
+	suspend fun printTemplate(printerConnection: Connection, template: ZplTemplate, fields: Map<Int, String>, namedValues: Map<String, String>) {
+		return withContext(Dispatchers.IO) {
+			if (printerConnection.isConnected.not()) printerConnection.open()
+
+			printerConnection.printJob { template.render(printerConnection, fields, namedValues) }
+		}
+	}
+
+	/**
+	 * Prints [bitmap] at [x], [y] as a compressed `^GFA` graphic field, converted to 1 bit per pixel row by row.
+	 */
+	suspend fun printBitmap(printerConnection: Connection, bitmap: Bitmap, x: Int = 0, y: Int = 0, dithering: GraphicDithering = GraphicDithering.FLOYD_STEINBERG) {
+		return withContext(Dispatchers.IO) {
+			if (printerConnection.isConnected.not()) printerConnection.open()
+
+			val compression = printerConnection.printJob { ZplGraphicConverter(dithering).printBitmap(printerConnection, bitmap, x, y) }
+			Timber.d("Bitmap ${bitmap.width}x${bitmap.height} written with $compression compression")
 		}
 	}
 
 	suspend fun printZPLTemplate(printerConnection: Connection, templateName: String, data: Map<Int, String>) {
 		return withContext(Dispatchers.IO) {
-			val printer: ZebraPrinter = ZebraPrinterFactory.getLinkOsPrinter(printerConnection)
-			printer.printStoredFormat(templateName, data)
+			if (printerConnection.isConnected.not()) printerConnection.open()
+
+			val printer: ZebraPrinter = PrinterInstanceCache.linkOsPrinter(printerConnection) ?: PrinterInstanceCache.printer(printerConnection)
+			printerConnection.printJob { printer.printStoredFormat(templateName, data) }
 		}
 	}
+
+	const val DEFAULT_CHUNK_SIZE = 16 * 1024
+	const val MAP_WINDOW_SIZE = 8L * 1024 * 1024
 }
\ No newline at end of file
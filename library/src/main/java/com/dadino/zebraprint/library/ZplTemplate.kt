@@ -0,0 +1,184 @@
+package com.dadino.zebraprint.library
+
+import com.zebra.sdk.comm.Connection
+import java.security.MessageDigest
+
+/**
+ * A ZPL label parsed once into static byte segments and the slots the data is written into:
+ * - `^FNn` fields, optionally followed by a `"prompt"` and by a `^FDdefault` value, the same syntax used by formats
+ *   stored on the printer. They are rendered as `^FD` followed by the value of field `n`, or by the default value
+ *   when it is missing, so a template can be printed locally or uploaded with `^DF` unchanged;
+ * - `${name}` placeholders, replaced by the value of `name` as is, wherever they appear.
+ *
+ * Rendering only copies the precompiled segments and encodes the values into the [ZplEncoder] buffer, in the code
+ * page selected by the `^CI` commands preceding each slot. Other missing values are rendered as empty strings.
+ */
+class ZplTemplate private constructor(
+	val id: String,
+	val source: String,
+	/**
+	 * Code page in effect at the start of [source], before any `^CI` command.
+	 */
+	val initialCodePage: ZplCodePage,
+	private val segments: List<ByteArray>,
+	private val slots: List<Slot>
+) {
+	/**
+	 * SHA-256 of [source], as uppercase hex.
+	 */
+	val hash: String by lazy {
+		MessageDigest.getInstance("SHA-256").digest(source.toByteArray(Charsets.UTF_8)).joinToString("") { "%02X".format(it) }
+	}
+
+	/**
+	 * Field numbers of the `^FN` slots, in order of appearance.
+	 */
+	val fieldNumbers: List<Int>
+		get() = slots.mapNotNull { (it as? Slot.Field)?.number }
+
+	/**
+	 * Names of the `${name}` slots, in order of appearance.
+	 */
+	val names: List<String>
+		get() = slots.mapNotNull { (it as? Slot.Named)?.name }
+
+	/**
+	 * Code page selected by the `^CI` commands preceding the first `^FN` slot of field [number], which its value is
+	 * encoded in, or null if the template has no such field.
+	 */
+	fun fieldCodePage(number: Int): ZplCodePage? {
+		return slots.firstOrNull { it is Slot.Field && it.number == number }?.codePage
+	}
+
+	fun render(connection: Connection, fields: Map<Int, String> = emptyMap(), namedValues: Map<String, String> = emptyMap()) {
+		render(connection, ZplEncoder.forConnection(connection), fields, namedValues)
+	}
+
+	private fun render(connection: Connection, encoder: ZplEncoder, fields: Map<Int, String>, namedValues: Map<String, String>) {
+		synchronized(encoder) {
+			for (i in slots.indices) {
+				encoder.append(connection, segments[i])
+				when (val slot = slots[i]) {
+					is Slot.Field -> {
+						encoder.append(connection, FIELD_DATA)
+						(fields[slot.number] ?: slot.defaultValue)?.let { encoder.append(connection, it, slot.codePage) }
+					}
+					is Slot.Named -> namedValues[slot.name]?.let { encoder.append(connection, it, slot.codePage) }
+				}
+			}
+			encoder.append(connection, segments[slots.size])
+			encoder.flush(connection)
+		}
+	}
+
+	private sealed class Slot(val codePage: ZplCodePage) {
+		class Field(val number: Int, codePage: ZplCodePage, val defaultValue: String?) : Slot(codePage)
+		class Named(val name: String, codePage: ZplCodePage) : Slot(codePage)
+	}
+
+	companion object {
+		private val FIELD_DATA = "^FD".toByteArray(Charsets.US_ASCII)
+
+		fun compile(id: String, source: String, initialCodePage: ZplCodePage = ZplCodePage.UTF_8): ZplTemplate {
+			val encoder = ZplEncoder()
+			val segments = arrayListOf<ByteArray>()
+			val slots = arrayListOf<Slot>()
+			var codePage = initialCodePage
+			var segmentStart = 0
+
+			fun closeSegment(end: Int) {
+				val (bytes, nextCodePage) = encoder.encodeToByteArray(source.subSequence(segmentStart, end), codePage)
+				segments.add(bytes)
+				codePage = nextCodePage
+			}
+
+			var i = 0
+			while (i < source.length) {
+				if (source.startsWith("^FN", i)) {
+					var end = i + 3
+					while (end < source.length && source[end].isDigit()) end++
+					if (end > i + 3) {
+						val number = source.substring(i + 3, end).toInt()
+						if (end < source.length && source[end] == '"') {
+							val closingQuote = source.indexOf('"', end + 1)
+							if (closingQuote >= 0) end = closingQuote + 1
+						}
+						// A ^FD right after the field is its default value, up to the next command
+						var defaultValue: String? = null
+						if (source.startsWith("^FD", end)) {
+							val dataEnd = source.indexOf('^', end + 3).takeIf { it >= 0 } ?: source.length
+							defaultValue = source.substring(end + 3, dataEnd)
+							end = dataEnd
+						}
+						closeSegment(i)
+						slots.add(Slot.Field(number, codePage, defaultValue))
+						segmentStart = end
+						i = end
+						continue
+					}
+				} else if (source.startsWith("\${", i)) {
+					val closingBrace = source.indexOf('}', i + 2)
+					if (closingBrace > i + 2) {
+						closeSegment(i)
+						slots.add(Slot.Named(source.substring(i + 2, closingBrace), codePage))
+						segmentStart = closingBrace + 1
+						i = closingBrace + 1
+						continue
+					}
+				}
+				i++
+			}
+			closeSegment(source.length)
+			return ZplTemplate(id, source, initialCodePage, segments, slots)
+		}
+	}
+}
+
+/**
+ * Compiled templates by id, keeping the [maxSize] most recently used ones.
+ */
+class ZplTemplateCache(var maxSize: Int = DEFAULT_MAX_SIZE) {
+	private val templates = LinkedHashMap<String, ZplTemplate>(16, 0.75f, true)
+
+	operator fun get(id: String): ZplTemplate? {
+		synchronized(templates) {
+			return templates[id]
+		}
+	}
+
+	/**
+	 * Returns the template compiled from [source], compiling it only if [id] is unknown or was registered with a
+	 * different source or code page.
+	 */
+	fun getOrCompile(id: String, source: String, initialCodePage: ZplCodePage = ZplCodePage.UTF_8): ZplTemplate {
+		synchronized(templates) {
+			templates[id]?.takeIf { it.source == source && it.initialCodePage == initialCodePage }?.let { return it }
+		}
+		val template = ZplTemplate.compile(id, source, initialCodePage)
+		synchronized(templates) {
+			templates[id] = template
+			val iterator = templates.values.iterator()
+			while (templates.size > maxSize.coerceAtLeast(1) && iterator.hasNext()) {
+				iterator.next()
+				iterator.remove()
+			}
+		}
+		return template
+	}
+
+	fun remove(id: String) {
+		synchronized(templates) {
+			templates.remove(id)
+		}
+	}
+
+	fun clear() {
+		synchronized(templates) {
+			templates.clear()
+		}
+	}
+
+	companion object {
+		const val DEFAULT_MAX_SIZE = 64
+	}
+}
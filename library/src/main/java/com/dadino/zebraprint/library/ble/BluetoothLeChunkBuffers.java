@@ -0,0 +1,50 @@
+package com.dadino.zebraprint.library.ble;
+
+/**
+ * Reusable arrays for the chunks {@link ZebraBluetoothLeSocket} hands to the GATT.
+ * <p>
+ * {@code BluetoothGattCharacteristic.setValue} needs an array of exactly the chunk length, so full
+ * MTU chunks share one buffer and the shorter tail of a write keeps its own until its length
+ * changes: a job only allocates when the MTU or the tail length change.
+ * <p>
+ * Reusing the array is safe: {@code writeCharacteristic} marshals the value to the Bluetooth
+ * service before returning, even for write-without-response chunks still in flight.
+ */
+class BluetoothLeChunkBuffers {
+
+	private byte[] fullChunkBuffer;
+	private byte[] tailChunkBuffer;
+	private long allocations;
+
+	/**
+	 * Copies {@code length} bytes of {@code source} from {@code offset} into the buffer for a chunk of
+	 * that length, with an MTU of {@code mtu}, and returns it.
+	 */
+	byte[] chunk(byte[] source, int offset, int length, int mtu) {
+		byte[] buffer = this.buffer(length, mtu);
+		System.arraycopy(source, offset, buffer, 0, length);
+		return buffer;
+	}
+
+	/**
+	 * Number of arrays allocated so far.
+	 */
+	long getAllocations() {
+		return this.allocations;
+	}
+
+	private byte[] buffer(int length, int mtu) {
+		if (length == mtu) {
+			if (this.fullChunkBuffer == null || this.fullChunkBuffer.length != mtu) {
+				this.fullChunkBuffer = new byte[mtu];
+				this.allocations++;
+			}
+			return this.fullChunkBuffer;
+		}
+		if (this.tailChunkBuffer == null || this.tailChunkBuffer.length != length) {
+			this.tailChunkBuffer = new byte[length];
+			this.allocations++;
+		}
+		return this.tailChunkBuffer;
+	}
+}
@@ -12,17 +12,28 @@ import com.zebra.sdk.comm.internal.ConnectionInfo;
 import com.zebra.sdk.comm.internal.NotMyConnectionDataException;
 import com.zebra.sdk.comm.internal.ZebraConnector;
 import com.zebra.sdk.util.internal.RegexUtil;
-import com.zebra.sdk.util.internal.Sleeper;
 
+import java.io.IOException;
 import java.util.List;
 
 public class BluetoothLeConnection extends ConnectionA {
 
 	protected static final int DEFAULT_TIME_TO_WAIT_FOR_MORE_DATA = 500;
 	protected static final int DEFAULT_MAX_TIMEOUT_FOR_READ = 5000;
+	protected static final int DEFAULT_MAX_TIMEOUT_FOR_PENDING_WRITES = 5000;
+	public static final int DEFAULT_WRITE_WINDOW_SIZE = 8;
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 32;
 	protected String friendlyName;
 	protected String macAddress;
 	private Context context;
+	private volatile BluetoothLeWriteStatistics lastJobWriteStatistics = BluetoothLeWriteStatistics.EMPTY;
+	private boolean writeWithoutResponse = false;
+	private int writeWindowSize = DEFAULT_WRITE_WINDOW_SIZE;
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private BluetoothLeConnectionTuning connectionTuning = BluetoothLeConnectionTuning.DEFAULT;
+	private int openJobs;
+	private ZebraBluetoothLeSocket jobSocket;
+	private BluetoothLeWriteStatistics jobStartStatistics;
 
 	public BluetoothLeConnection(String var1) {
 		this(var1, 5000, 500, (Context) null);
@@ -81,18 +92,149 @@ public class BluetoothLeConnection extends ConnectionA {
 	public void open() throws ConnectionException {
 		BluetoothLeHelper.cancelBluetoothDiscovery();
 		super.open();
+		this.setReadTimeout(this.maxTimeoutForRead);
+		this.applyWriteMode();
+		this.applyConnectionTuning();
 		this.friendlyName = this.getFriendlyNameFromDevice();
 	}
 
+	public void setMaxTimeoutForRead(int var1) {
+		super.setMaxTimeoutForRead(var1);
+		if (this.commLink != null) {
+			try {
+				this.commLink.setReadTimeout(var1);
+			} catch (IOException var3) {
+			}
+		}
+	}
+
+	/**
+	 * Waits for the chunks still in flight to be acknowledged, at most
+	 * {@link #DEFAULT_MAX_TIMEOUT_FOR_PENDING_WRITES} ms, then closes right away.
+	 */
 	public void close() throws ConnectionException {
-		if (this.isConnected) {
-			Sleeper.sleep(5000L);
+		if (this.isConnected && this.commLink instanceof ZebraBluetoothLeSocket) {
+			((ZebraBluetoothLeSocket) this.commLink).awaitPendingWrites(DEFAULT_MAX_TIMEOUT_FOR_PENDING_WRITES);
 		}
 
 		this.friendlyName = "";
 		super.close();
 	}
 
+	/**
+	 * A write outside of {@link #beginJob()} and {@link #endJob()} is a job of its own.
+	 */
+	public void write(byte[] var1, int var2, int var3) throws ConnectionException {
+		this.beginJob();
+		try {
+			super.write(var1, var2, var3);
+		} finally {
+			this.endJob();
+		}
+	}
+
+	/**
+	 * Starts a print job made of any number of writes: the link stays at the streaming priority
+	 * until the matching {@link #endJob()}, and {@link #getLastJobWriteStatistics()} then covers
+	 * all of its writes. Jobs can be nested, only the outermost one counts.
+	 */
+	public synchronized void beginJob() {
+		this.openJobs++;
+		if (this.jobSocket == null && this.commLink instanceof ZebraBluetoothLeSocket) {
+			this.jobSocket = (ZebraBluetoothLeSocket) this.commLink;
+			this.jobStartStatistics = this.jobSocket.getWriteStatistics();
+			this.jobSocket.onJobStarted();
+		}
+	}
+
+	/**
+	 * Ends the job started by the matching {@link #beginJob()}.
+	 *
+	 * @return true if this ended the outermost job, whose statistics are now available
+	 */
+	public synchronized boolean endJob() {
+		if (this.openJobs == 0 || --this.openJobs > 0) {
+			return false;
+		}
+		if (this.jobSocket != null) {
+			this.jobSocket.onJobFinished();
+			this.lastJobWriteStatistics = this.jobSocket.getWriteStatistics().since(this.jobStartStatistics);
+			this.jobSocket = null;
+			this.jobStartStatistics = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the link parameters requested while a job streams and while the connection is idle.
+	 * Defaults to {@link BluetoothLeConnectionTuning#DEFAULT}; use {@link BluetoothLeConnectionTuning#NONE}
+	 * to leave them to the Android stack.
+	 */
+	public void setConnectionTuning(BluetoothLeConnectionTuning var1) {
+		this.connectionTuning = var1 != null ? var1 : BluetoothLeConnectionTuning.NONE;
+		this.applyConnectionTuning();
+	}
+
+	public BluetoothLeConnectionTuning getConnectionTuning() {
+		return this.connectionTuning;
+	}
+
+	/**
+	 * Link parameters negotiated with the printer (MTU, connection interval, PHY), or
+	 * {@link BluetoothLeConnectionStats#EMPTY} while the connection is closed.
+	 */
+	public BluetoothLeConnectionStats getConnectionStats() {
+		if (this.commLink instanceof ZebraBluetoothLeSocket) {
+			return ((ZebraBluetoothLeSocket) this.commLink).getConnectionStats();
+		}
+		return BluetoothLeConnectionStats.EMPTY;
+	}
+
+	private void applyConnectionTuning() {
+		if (this.commLink instanceof ZebraBluetoothLeSocket) {
+			((ZebraBluetoothLeSocket) this.commLink).setConnectionTuning(this.connectionTuning);
+		}
+	}
+
+	/**
+	 * Opts in to write-without-response streaming: chunks are sent with
+	 * {@code WRITE_TYPE_NO_RESPONSE}, at most {@code windowSize} of them waiting for their
+	 * {@code onCharacteristicWrite} at any time, and every {@code checkpointInterval}-th chunk is an
+	 * acknowledged write that lets the printer pace the stream.
+	 * <p>
+	 * Since every chunk of a job is handed to the GATT back to back, consider raising
+	 * {@link #setMaxDataToWrite(int)} as well, so fewer and larger blocks reach the socket.
+	 */
+	public void setWriteWithoutResponse(boolean var1, int var2, int var3) {
+		this.writeWithoutResponse = var1;
+		this.writeWindowSize = var2;
+		this.checkpointInterval = var3;
+		this.applyWriteMode();
+	}
+
+	public void setWriteWithoutResponse(boolean var1) {
+		this.setWriteWithoutResponse(var1, DEFAULT_WRITE_WINDOW_SIZE, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	public boolean isWriteWithoutResponse() {
+		return this.writeWithoutResponse;
+	}
+
+	private void applyWriteMode() {
+		if (this.commLink instanceof ZebraBluetoothLeSocket) {
+			((ZebraBluetoothLeSocket) this.commLink).setWriteWithoutResponse(this.writeWithoutResponse, this.writeWindowSize, this.checkpointInterval);
+		}
+	}
+
+	/**
+	 * Statistics of the last job written through this connection, useful to compute the BLE throughput.
+	 *
+	 * @see #beginJob()
+	 */
+	public BluetoothLeWriteStatistics getLastJobWriteStatistics() {
+		return this.lastJobWriteStatistics;
+	}
+
 	public ConnectionReestablisher getConnectionReestablisher(long var1) throws ConnectionException {
 		return new BluetoothLeConnectionReestablisher(this, var1);
 	}
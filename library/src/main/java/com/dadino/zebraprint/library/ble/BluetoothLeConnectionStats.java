@@ -0,0 +1,122 @@
+package com.dadino.zebraprint.library.ble;
+
+/**
+ * Immutable snapshot of the link parameters negotiated with a BLE printer.
+ * <p>
+ * Values the Android stack did not report (yet) are -1: the connection interval in particular is
+ * only delivered by the stack on API 26+ and may never be reported on some devices.
+ */
+public final class BluetoothLeConnectionStats {
+
+	public static final int UNKNOWN = -1;
+	public static final BluetoothLeConnectionStats EMPTY = new BluetoothLeConnectionStats(UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+
+	private final int mtu;
+	private final int connectionInterval;
+	private final int peripheralLatency;
+	private final int supervisionTimeout;
+	private final int txPhy;
+	private final int rxPhy;
+	private final int connectionPriority;
+	private final long timeToReadyMillis;
+
+	public BluetoothLeConnectionStats(int mtu, int connectionInterval, int peripheralLatency, int supervisionTimeout, int txPhy, int rxPhy, int connectionPriority, long timeToReadyMillis) {
+		this.mtu = mtu;
+		this.connectionInterval = connectionInterval;
+		this.peripheralLatency = peripheralLatency;
+		this.supervisionTimeout = supervisionTimeout;
+		this.txPhy = txPhy;
+		this.rxPhy = rxPhy;
+		this.connectionPriority = connectionPriority;
+		this.timeToReadyMillis = timeToReadyMillis;
+	}
+
+	/**
+	 * Negotiated ATT MTU, as reported by {@code onMtuChanged}.
+	 */
+	public int getMtu() {
+		return this.mtu;
+	}
+
+	/**
+	 * Connection interval in units of 1.25 ms.
+	 */
+	public int getConnectionInterval() {
+		return this.connectionInterval;
+	}
+
+	public double getConnectionIntervalMillis() {
+		return this.connectionInterval == UNKNOWN ? UNKNOWN : this.connectionInterval * 1.25;
+	}
+
+	public int getPeripheralLatency() {
+		return this.peripheralLatency;
+	}
+
+	/**
+	 * Supervision timeout in units of 10 ms.
+	 */
+	public int getSupervisionTimeout() {
+		return this.supervisionTimeout;
+	}
+
+	/**
+	 * One of the {@code BluetoothDevice.PHY_LE_*} constants.
+	 */
+	public int getTxPhy() {
+		return this.txPhy;
+	}
+
+	/**
+	 * One of the {@code BluetoothDevice.PHY_LE_*} constants.
+	 */
+	public int getRxPhy() {
+		return this.rxPhy;
+	}
+
+	/**
+	 * Last priority requested with {@code BluetoothGatt.requestConnectionPriority}.
+	 */
+	public int getConnectionPriority() {
+		return this.connectionPriority;
+	}
+
+	/**
+	 * Time from {@code connectGatt} until the printer indications were enabled and the socket was
+	 * ready to write, for the connection that created the GATT.
+	 */
+	public long getTimeToReadyMillis() {
+		return this.timeToReadyMillis;
+	}
+
+	BluetoothLeConnectionStats withMtu(int mtu) {
+		return new BluetoothLeConnectionStats(mtu, this.connectionInterval, this.peripheralLatency, this.supervisionTimeout, this.txPhy, this.rxPhy, this.connectionPriority, this.timeToReadyMillis);
+	}
+
+	BluetoothLeConnectionStats withConnectionParameters(int connectionInterval, int peripheralLatency, int supervisionTimeout) {
+		return new BluetoothLeConnectionStats(this.mtu, connectionInterval, peripheralLatency, supervisionTimeout, this.txPhy, this.rxPhy, this.connectionPriority, this.timeToReadyMillis);
+	}
+
+	BluetoothLeConnectionStats withPhy(int txPhy, int rxPhy) {
+		return new BluetoothLeConnectionStats(this.mtu, this.connectionInterval, this.peripheralLatency, this.supervisionTimeout, txPhy, rxPhy, this.connectionPriority, this.timeToReadyMillis);
+	}
+
+	BluetoothLeConnectionStats withConnectionPriority(int connectionPriority) {
+		return new BluetoothLeConnectionStats(this.mtu, this.connectionInterval, this.peripheralLatency, this.supervisionTimeout, this.txPhy, this.rxPhy, connectionPriority, this.timeToReadyMillis);
+	}
+
+	BluetoothLeConnectionStats withTimeToReady(long timeToReadyMillis) {
+		return new BluetoothLeConnectionStats(this.mtu, this.connectionInterval, this.peripheralLatency, this.supervisionTimeout, this.txPhy, this.rxPhy, this.connectionPriority, timeToReadyMillis);
+	}
+
+	public String toString() {
+		return "BluetoothLeConnectionStats{mtu=" + this.mtu
+				+ ", intervalMs=" + this.getConnectionIntervalMillis()
+				+ ", latency=" + this.peripheralLatency
+				+ ", supervisionTimeout=" + this.supervisionTimeout
+				+ ", txPhy=" + this.txPhy
+				+ ", rxPhy=" + this.rxPhy
+				+ ", priority=" + this.connectionPriority
+				+ ", timeToReadyMs=" + this.timeToReadyMillis + "}";
+	}
+}
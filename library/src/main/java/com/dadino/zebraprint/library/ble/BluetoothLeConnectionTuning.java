@@ -0,0 +1,53 @@
+package com.dadino.zebraprint.library.ble;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * Link parameters requested by {@link ZebraBluetoothLeSocket} while a job streams and while the
+ * connection is idle.
+ * <p>
+ * The PHY preference is only applied on API 26+ and only takes effect if both the handheld and
+ * the printer support it; the Android stack silently keeps the 1M PHY otherwise.
+ */
+public final class BluetoothLeConnectionTuning {
+
+	/**
+	 * Leaves the link parameters to the Android stack, as the library did before tuning was available.
+	 */
+	public static final BluetoothLeConnectionTuning NONE = new BluetoothLeConnectionTuning(false, BluetoothGatt.CONNECTION_PRIORITY_BALANCED, BluetoothGatt.CONNECTION_PRIORITY_BALANCED, 0);
+	public static final BluetoothLeConnectionTuning DEFAULT = new BluetoothLeConnectionTuning(true, BluetoothGatt.CONNECTION_PRIORITY_HIGH, BluetoothGatt.CONNECTION_PRIORITY_BALANCED, BluetoothDevice.PHY_LE_2M_MASK);
+
+	private final boolean enabled;
+	private final int streamingPriority;
+	private final int idlePriority;
+	private final int preferredPhyMask;
+
+	/**
+	 * @param streamingPriority {@code BluetoothGatt.CONNECTION_PRIORITY_*} requested while a job is written
+	 * @param idlePriority      {@code BluetoothGatt.CONNECTION_PRIORITY_*} requested once the job is written
+	 * @param preferredPhyMask  combination of {@code BluetoothDevice.PHY_LE_*_MASK}, or 0 to keep the current PHY
+	 */
+	public BluetoothLeConnectionTuning(boolean enabled, int streamingPriority, int idlePriority, int preferredPhyMask) {
+		this.enabled = enabled;
+		this.streamingPriority = streamingPriority;
+		this.idlePriority = idlePriority;
+		this.preferredPhyMask = preferredPhyMask;
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public int getStreamingPriority() {
+		return this.streamingPriority;
+	}
+
+	public int getIdlePriority() {
+		return this.idlePriority;
+	}
+
+	public int getPreferredPhyMask() {
+		return this.preferredPhyMask;
+	}
+}
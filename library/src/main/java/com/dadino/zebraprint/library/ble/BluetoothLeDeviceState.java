@@ -0,0 +1,133 @@
+package com.dadino.zebraprint.library.ble;
+
+import com.zebra.sdk.btleComm.internal.BluetoothDeviceCollection;
+import com.zebra.sdk.btleComm.internal.BluetoothLeDeviceConnectionData;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * State shared by every {@link ZebraBluetoothLeSocket} opened towards the same printer.
+ * <p>
+ * The Zebra SDK keeps one {@code BluetoothGatt} per MAC address and its callback belongs to the
+ * socket that created it, so anything the callback signals (write credits, MTU changes,
+ * disconnections, negotiated link parameters) and the locks guarding the GATT are kept here,
+ * keyed by MAC address. Different printers get different instances and never contend with each
+ * other.
+ */
+final class BluetoothLeDeviceState {
+
+	private static final ConcurrentMap<String, BluetoothLeDeviceState> states = new ConcurrentHashMap<>();
+
+	final Object connectLock = new Object();
+	final Object writeLock = new Object();
+	final BluetoothLeWriteFlowControl writeFlowControl = new BluetoothLeWriteFlowControl();
+	private volatile BluetoothLeConnectionStats connectionStats = BluetoothLeConnectionStats.EMPTY;
+	private int activeJobs;
+
+	private BluetoothLeDeviceState() {
+	}
+
+	static BluetoothLeDeviceState forAddress(String macAddress) {
+		String key = macAddress != null ? macAddress : "";
+		BluetoothLeDeviceState state = states.get(key);
+		if (state == null) {
+			BluetoothLeDeviceState newState = new BluetoothLeDeviceState();
+			state = states.putIfAbsent(key, newState);
+			if (state == null) {
+				state = newState;
+			}
+		}
+		return state;
+	}
+
+	BluetoothLeConnectionStats getConnectionStats() {
+		return this.connectionStats;
+	}
+
+	synchronized void onMtuChanged(int mtu) {
+		this.connectionStats = this.connectionStats.withMtu(mtu);
+		this.notifyAll();
+	}
+
+	/**
+	 * Waits for {@code onMtuChanged} after an MTU request, giving up after {@code timeoutMillis}.
+	 */
+	synchronized void awaitMtuChanged(BluetoothLeDeviceConnectionData connectionData, long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			long remaining = timeoutMillis;
+			while (connectionData.isWaitingForMtuToChange() && remaining > 0) {
+				this.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	synchronized void onConnectionDataRemoved() {
+		this.notifyAll();
+	}
+
+	/**
+	 * Waits for the GATT callback to drop the SDK connection data after a disconnection.
+	 *
+	 * @return false if the connection data is still there after {@code timeoutMillis}
+	 */
+	synchronized boolean awaitConnectionDataRemoved(String macAddress, long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			long remaining = timeoutMillis;
+			while (BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(macAddress) != null) {
+				if (remaining <= 0) {
+					return false;
+				}
+				this.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	synchronized void onConnectionUpdated(int interval, int latency, int timeout) {
+		this.connectionStats = this.connectionStats.withConnectionParameters(interval, latency, timeout);
+	}
+
+	synchronized void onPhyUpdated(int txPhy, int rxPhy) {
+		this.connectionStats = this.connectionStats.withPhy(txPhy, rxPhy);
+	}
+
+	synchronized void onConnectionReady(long timeToReadyMillis) {
+		this.connectionStats = this.connectionStats.withTimeToReady(timeToReadyMillis);
+	}
+
+	synchronized void onConnectionPriorityRequested(int priority) {
+		this.connectionStats = this.connectionStats.withConnectionPriority(priority);
+	}
+
+	/**
+	 * Counts the jobs streaming to this printer, from any of its sockets, so the idle priority is
+	 * only requested once none is left.
+	 */
+	synchronized void onJobStarted() {
+		this.activeJobs++;
+	}
+
+	synchronized void onJobFinished() {
+		if (this.activeJobs > 0) {
+			this.activeJobs--;
+		}
+	}
+
+	synchronized boolean hasActiveJobs() {
+		return this.activeJobs > 0;
+	}
+
+	synchronized void resetConnectionStats() {
+		this.connectionStats = BluetoothLeConnectionStats.EMPTY;
+	}
+}
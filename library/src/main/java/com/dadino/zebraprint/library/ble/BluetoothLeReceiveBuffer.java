@@ -0,0 +1,144 @@
+package com.dadino.zebraprint.library.ble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Growable byte ring buffer filled by the GATT notification callback and drained by
+ * {@link ZebraBluetoothLeSocket}'s input stream.
+ * <p>
+ * It extends {@link ByteArrayOutputStream} only so it can be stored in the Zebra SDK
+ * {@code BluetoothLeDeviceConnectionData} read map, which is shared by every socket opened
+ * towards the same printer. Reads consume the data in place, without copying the remaining
+ * bytes, and block up to the given timeout while the buffer is empty.
+ */
+class BluetoothLeReceiveBuffer extends ByteArrayOutputStream {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private byte[] ring;
+	private int head;
+	private int count;
+
+	BluetoothLeReceiveBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	BluetoothLeReceiveBuffer(int capacity) {
+		super(0);
+		this.ring = new byte[Math.max(capacity, 1)];
+	}
+
+	public synchronized void write(int b) {
+		this.ensureCapacity(this.count + 1);
+		this.ring[(this.head + this.count) % this.ring.length] = (byte) b;
+		this.count++;
+		this.notifyAll();
+	}
+
+	public synchronized void write(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return;
+		}
+		this.ensureCapacity(this.count + len);
+		int tail = (this.head + this.count) % this.ring.length;
+		int firstPart = Math.min(len, this.ring.length - tail);
+		System.arraycopy(b, off, this.ring, tail, firstPart);
+		System.arraycopy(b, off + firstPart, this.ring, 0, len - firstPart);
+		this.count += len;
+		this.notifyAll();
+	}
+
+	/**
+	 * Reads a single byte, waiting up to {@code timeoutMillis} for data to arrive.
+	 *
+	 * @return the byte read, or -1 if no data arrived before the timeout
+	 */
+	synchronized int read(long timeoutMillis) throws InterruptedIOException {
+		if (!this.awaitData(timeoutMillis)) {
+			return -1;
+		}
+		int b = this.ring[this.head] & 0xFF;
+		this.head = (this.head + 1) % this.ring.length;
+		this.count--;
+		return b;
+	}
+
+	/**
+	 * Reads up to {@code len} bytes, waiting up to {@code timeoutMillis} for the first byte to arrive.
+	 *
+	 * @return the number of bytes read, or -1 if no data arrived before the timeout
+	 */
+	synchronized int read(byte[] b, int off, int len, long timeoutMillis) throws InterruptedIOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!this.awaitData(timeoutMillis)) {
+			return -1;
+		}
+		int read = Math.min(len, this.count);
+		int firstPart = Math.min(read, this.ring.length - this.head);
+		System.arraycopy(this.ring, this.head, b, off, firstPart);
+		System.arraycopy(this.ring, 0, b, off + firstPart, read - firstPart);
+		this.head = (this.head + read) % this.ring.length;
+		this.count -= read;
+		return read;
+	}
+
+	synchronized int available() {
+		return this.count;
+	}
+
+	public synchronized void reset() {
+		this.head = 0;
+		this.count = 0;
+	}
+
+	public synchronized int size() {
+		return this.count;
+	}
+
+	public synchronized byte[] toByteArray() {
+		byte[] copy = new byte[this.count];
+		int firstPart = Math.min(this.count, this.ring.length - this.head);
+		System.arraycopy(this.ring, this.head, copy, 0, firstPart);
+		System.arraycopy(this.ring, 0, copy, firstPart, this.count - firstPart);
+		return copy;
+	}
+
+	private boolean awaitData(long timeoutMillis) throws InterruptedIOException {
+		if (this.count > 0) {
+			return true;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+		try {
+			while (this.count == 0 && remaining > 0) {
+				this.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Bluetooth LE read interrupted");
+		}
+		return this.count > 0;
+	}
+
+	private void ensureCapacity(int required) {
+		if (required <= this.ring.length) {
+			return;
+		}
+		byte[] grown = new byte[Math.max(required, this.ring.length * 2)];
+		int firstPart = Math.min(this.count, this.ring.length - this.head);
+		System.arraycopy(this.ring, this.head, grown, 0, firstPart);
+		System.arraycopy(this.ring, 0, grown, firstPart, this.count - firstPart);
+		this.ring = grown;
+		this.head = 0;
+	}
+}
@@ -0,0 +1,145 @@
+package com.dadino.zebraprint.library.ble;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Credit window shared by every socket writing to the same printer.
+ * <p>
+ * Each chunk takes a credit before being handed to the GATT and the credit is given back by
+ * {@code onCharacteristicWrite}. A window of one is the classic acknowledged write, where every
+ * chunk waits for the previous one; larger windows let write-without-response chunks queue up in
+ * the Bluetooth stack while still bounding how far the writer can run ahead of the radio.
+ * <p>
+ * A chunk the GATT reports as failed fails the write waiting on the window, instead of being
+ * counted as delivered.
+ */
+class BluetoothLeWriteFlowControl {
+
+	private static final int NO_FAILURE = 0;
+
+	private int window = 1;
+	private int inFlight;
+	private long completions;
+	private int failedStatus = NO_FAILURE;
+
+	/**
+	 * Prepares the window for a new write, forgetting the failure of a previous one.
+	 */
+	synchronized void begin(int window) {
+		this.window = Math.max(window, 1);
+		this.failedStatus = NO_FAILURE;
+		this.notifyAll();
+	}
+
+	/**
+	 * Takes a credit, waiting up to {@code timeoutMillis} for one to be returned if the window is full.
+	 */
+	synchronized void acquire(long timeoutMillis) throws IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		this.checkFailure();
+		while (this.inFlight >= this.window) {
+			this.waitUntil(deadline);
+		}
+		this.inFlight++;
+	}
+
+	/**
+	 * Gives back the credit of a chunk that could not be handed to the GATT.
+	 */
+	synchronized void cancel() {
+		if (this.inFlight > 0) {
+			this.inFlight--;
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Called from {@code onCharacteristicWrite}: the oldest chunk in flight has been processed.
+	 */
+	synchronized void onChunkWritten() {
+		if (this.inFlight > 0) {
+			this.inFlight--;
+		}
+		this.completions++;
+		this.notifyAll();
+	}
+
+	/**
+	 * Called from {@code onCharacteristicWrite} with a status other than {@code GATT_SUCCESS}: the
+	 * oldest chunk in flight was not delivered.
+	 */
+	synchronized void onChunkFailed(int status) {
+		if (this.inFlight > 0) {
+			this.inFlight--;
+		}
+		this.completions++;
+		if (this.failedStatus == NO_FAILURE) {
+			this.failedStatus = status;
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Waits for another chunk in flight to complete, used when the GATT refuses a write because
+	 * it is still busy with the previous one. The caller is expected to hold one credit.
+	 *
+	 * @return false if no other chunk was in flight, meaning the GATT refused the write for good
+	 */
+	synchronized boolean awaitOtherCompletion(long timeoutMillis) throws IOException {
+		this.checkFailure();
+		if (this.inFlight <= 1) {
+			return false;
+		}
+		long observed = this.completions;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (this.completions == observed) {
+			this.waitUntil(deadline);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until every chunk in flight has been acknowledged by the GATT callback, failing if any
+	 * of them was not delivered.
+	 */
+	synchronized void drain(long timeoutMillis) throws IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		this.checkFailure();
+		while (this.inFlight > 0) {
+			this.waitUntil(deadline);
+		}
+	}
+
+	/**
+	 * Forgets every chunk in flight, after a failure or when the GATT is going away.
+	 */
+	synchronized void reset() {
+		this.inFlight = 0;
+		this.failedStatus = NO_FAILURE;
+		this.notifyAll();
+	}
+
+	private void checkFailure() throws IOException {
+		if (this.failedStatus != NO_FAILURE) {
+			throw new IOException("Bluetooth LE Write failed with GATT status " + this.failedStatus);
+		}
+	}
+
+	/**
+	 * Waits until {@code deadline} for a change of the window, failing if a chunk failed meanwhile.
+	 */
+	private void waitUntil(long deadline) throws IOException {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+			throw new IOException("Bluetooth LE Write timed out");
+		}
+		try {
+			this.wait(remaining);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Bluetooth LE Write interrupted");
+		}
+		this.checkFailure();
+	}
+}
@@ -0,0 +1,59 @@
+package com.dadino.zebraprint.library.ble;
+
+/**
+ * Immutable snapshot of the data pushed through a {@link ZebraBluetoothLeSocket}.
+ * <p>
+ * The elapsed time only accounts for the time spent inside the socket writes (from the first
+ * chunk handed to the GATT to the last {@code onCharacteristicWrite}), so
+ * {@link #getBytesPerSecond()} reflects the BLE link throughput rather than the caller pace.
+ */
+public final class BluetoothLeWriteStatistics {
+
+	public static final BluetoothLeWriteStatistics EMPTY = new BluetoothLeWriteStatistics(0L, 0L, 0L);
+
+	private final long bytesWritten;
+	private final long chunksWritten;
+	private final long elapsedNanos;
+
+	public BluetoothLeWriteStatistics(long bytesWritten, long chunksWritten, long elapsedNanos) {
+		this.bytesWritten = bytesWritten;
+		this.chunksWritten = chunksWritten;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public long getBytesWritten() {
+		return this.bytesWritten;
+	}
+
+	public long getChunksWritten() {
+		return this.chunksWritten;
+	}
+
+	public long getElapsedNanos() {
+		return this.elapsedNanos;
+	}
+
+	public double getBytesPerSecond() {
+		if (this.elapsedNanos <= 0L) {
+			return 0.0;
+		}
+		return this.bytesWritten * 1_000_000_000.0 / this.elapsedNanos;
+	}
+
+	/**
+	 * Returns the statistics accumulated between {@code earlier} and this snapshot.
+	 */
+	public BluetoothLeWriteStatistics since(BluetoothLeWriteStatistics earlier) {
+		return new BluetoothLeWriteStatistics(
+				this.bytesWritten - earlier.bytesWritten,
+				this.chunksWritten - earlier.chunksWritten,
+				this.elapsedNanos - earlier.elapsedNanos);
+	}
+
+	public String toString() {
+		return "BluetoothLeWriteStatistics{bytes=" + this.bytesWritten
+				+ ", chunks=" + this.chunksWritten
+				+ ", elapsedMs=" + (this.elapsedNanos / 1_000_000L)
+				+ ", bytesPerSecond=" + Math.round(this.getBytesPerSecond()) + "}";
+	}
+}
@@ -5,7 +5,6 @@ import android.content.Context;
 import com.zebra.sdk.comm.ConnectionException;
 import com.zebra.sdk.comm.internal.ZebraConnector;
 import com.zebra.sdk.comm.internal.ZebraSocket;
-import com.zebra.sdk.util.internal.Sleeper;
 
 import java.io.IOException;
 import java.util.UUID;
@@ -27,7 +26,6 @@ public class BluetoothLeZebraConnectorImpl implements ZebraConnector {
 
 		try {
 			var1.connect();
-			Sleeper.sleep(1000L);
 			return var1;
 		} catch (IOException var3) {
 			throw new ConnectionException(var3.getMessage());
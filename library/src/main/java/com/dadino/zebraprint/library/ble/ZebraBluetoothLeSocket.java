@@ -14,20 +14,21 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build.VERSION;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.zebra.sdk.btleComm.internal.BluetoothDeviceCollection;
 import com.zebra.sdk.btleComm.internal.BluetoothLeDeviceConnectionData;
 import com.zebra.sdk.comm.internal.ZebraSocket;
-import com.zebra.sdk.util.internal.Sleeper;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.Method;
-import java.util.Arrays;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @SuppressLint("MissingPermission")
 public class ZebraBluetoothLeSocket implements ZebraSocket {
@@ -38,13 +39,12 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 	private static final int MTU_REQUEST_API_LEVEL = 21;
 	private static final UUID PARSER_DATA_SERVICE_UUID = UUID.fromString("38eb4a80-c570-11e3-9507-0002a5d5c51b");
 	private static final UUID DATA_NOTIFICATION_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
-	private static final Object connectLock = new Object();
-	private static final Object writeLock = new Object();
 	private static long DEFAULT_CONNECTION_TIMEOUT_INTERVAL = 30000L;
 	private static long DEFAULT_CONNECTION_CLOSE_TIMEOUT_INTERVAL = 1500L;
 	private static long DEFAULT_WRITE_TIMEOUT_INTERVAL = 10000L;
-	private static UUID CURRENT_DATA_FROM_PRINTER_UUID;
-	private static UUID CURRENT_DATA_TO_PRINTER_UUID;
+	private static long DEFAULT_MTU_CHANGE_TIMEOUT_INTERVAL = 10000L;
+	private static long BONDED_SETTLE_DELAY = 1000L;
+	private static long IDLE_PRIORITY_DELAY = 1000L;
 	private UUID PARSER_DATA_FROM_PRINTER_CHAR_UUID;
 	private UUID PARSER_DATA_TO_PRINTER_CHAR_UUID;
 	private BluetoothAdapter mBluetoothAdapter;
@@ -57,12 +57,32 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 	private Context context;
 	private boolean firstWriteSuccessful;
 	private boolean connectionIsClosing = false;
+	private final BluetoothLeDeviceState deviceState;
+	private final Object connectLock;
+	private final Object writeLock;
+	private volatile int readTimeout = 0;
+	private final BluetoothLeWriteFlowControl writeFlowControl;
+	private volatile boolean writeWithoutResponse = false;
+	private volatile int writeWindowSize = 1;
+	private volatile int checkpointInterval = 1;
+	private final BluetoothLeChunkBuffers chunkBuffers = new BluetoothLeChunkBuffers();
+	private volatile BluetoothLeConnectionTuning connectionTuning = BluetoothLeConnectionTuning.NONE;
+	private volatile CountDownLatch servicesFound;
+	private volatile CountDownLatch indicationsEnabled;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private long totalBytesWritten;
+	private long totalChunksWritten;
+	private long totalWriteNanos;
 
 	public ZebraBluetoothLeSocket(String var1, Context var2, UUID var3, UUID var4) {
 		this.PARSER_DATA_FROM_PRINTER_CHAR_UUID = var3;
 		this.PARSER_DATA_TO_PRINTER_CHAR_UUID = var4;
 		this.macAddress = var1;
 		this.context = var2;
+		this.deviceState = BluetoothLeDeviceState.forAddress(var1);
+		this.connectLock = this.deviceState.connectLock;
+		this.writeLock = this.deviceState.writeLock;
+		this.writeFlowControl = this.deviceState.writeFlowControl;
 		this.mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
 	}
 
@@ -75,41 +95,87 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 					return;
 				}
 
-				if (var4 == 12) {
-					Sleeper.sleep(1000L);
-					BluetoothLeDeviceConnectionData var5 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress);
-					if (null != var5 && !var5.isPaired() && ZebraBluetoothLeSocket.this.receiveDataCharacteristic != null) {
-						BluetoothGattDescriptor var6 = ZebraBluetoothLeSocket.this.receiveDataCharacteristic.getDescriptor(ZebraBluetoothLeSocket.DATA_NOTIFICATION_UUID);
-						var6.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
-						boolean var7 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress).getGatt().writeDescriptor(var6);
-						if (!var7) {
-							ZebraBluetoothLeSocket.this.gattSuccess = false;
-							ZebraBluetoothLeSocket.this.close();
+				if (var4 == BluetoothDevice.BOND_BONDED) {
+					ZebraBluetoothLeSocket.this.mainHandler.postDelayed(new Runnable() {
+						public void run() {
+							BluetoothLeDeviceConnectionData var1 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress);
+							if (null != var1 && !var1.isPaired() && var1.getGatt() != null && ZebraBluetoothLeSocket.this.receiveDataCharacteristic != null) {
+								ZebraBluetoothLeSocket.this.enableIndications(var1.getGatt());
+							}
 						}
-					}
+					}, BONDED_SETTLE_DELAY);
 				}
 			}
 		}
 	};
 
-	private void requestLargerMtu(BluetoothGatt var1) {
-		if (VERSION.SDK_INT >= 21) {
-			try {
-				Class[] var2 = new Class[]{Integer.TYPE};
-				Method var3 = var1.getClass().getDeclaredMethod("requestMtu", var2);
-				var3.invoke(BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress).getGatt(), 515);
-			} catch (Exception var4) {
+	private boolean requestLargerMtu(BluetoothGatt var1) {
+		return VERSION.SDK_INT >= MTU_REQUEST_API_LEVEL && var1.requestMtu(MAX_MTU_SIZE);
+	}
+
+	private void requestPreferredPhy(BluetoothGatt var1) {
+		BluetoothLeConnectionTuning var2 = this.connectionTuning;
+		if (var2.isEnabled() && var2.getPreferredPhyMask() != 0 && VERSION.SDK_INT >= 26) {
+			var1.setPreferredPhy(var2.getPreferredPhyMask(), var2.getPreferredPhyMask(), BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+		}
+	}
+
+	private void requestConnectionPriority(int var1) {
+		BluetoothLeDeviceConnectionData var2 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress);
+		BluetoothGatt var3 = var2 != null ? var2.getGatt() : null;
+		if (var3 != null && this.deviceState.getConnectionStats().getConnectionPriority() != var1 && var3.requestConnectionPriority(var1)) {
+			this.deviceState.onConnectionPriorityRequested(var1);
+		}
+	}
+
+	public void setConnectionTuning(BluetoothLeConnectionTuning var1) {
+		this.connectionTuning = var1 != null ? var1 : BluetoothLeConnectionTuning.NONE;
+		BluetoothLeDeviceConnectionData var2 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress);
+		if (var2 != null && var2.getGatt() != null) {
+			this.requestPreferredPhy(var2.getGatt());
+		}
+	}
+
+	private final Runnable idlePriorityRequest = new Runnable() {
+		public void run() {
+			BluetoothLeConnectionTuning var1 = ZebraBluetoothLeSocket.this.connectionTuning;
+			if (var1.isEnabled() && !ZebraBluetoothLeSocket.this.deviceState.hasActiveJobs()) {
+				ZebraBluetoothLeSocket.this.requestConnectionPriority(var1.getIdlePriority());
 			}
 		}
+	};
+
+	/**
+	 * Raises the connection priority for the job about to be written, according to the tuning profile.
+	 */
+	public void onJobStarted() {
+		this.mainHandler.removeCallbacks(this.idlePriorityRequest);
+		this.deviceState.onJobStarted();
+		BluetoothLeConnectionTuning var1 = this.connectionTuning;
+		if (var1.isEnabled()) {
+			this.requestConnectionPriority(var1.getStreamingPriority());
+		}
+	}
+
+	/**
+	 * Brings the connection priority back to the idle one once the job has been written, after
+	 * {@link #IDLE_PRIORITY_DELAY} so back to back jobs keep the streaming one.
+	 */
+	public void onJobFinished() {
+		this.deviceState.onJobFinished();
+		this.mainHandler.removeCallbacks(this.idlePriorityRequest);
+		this.mainHandler.postDelayed(this.idlePriorityRequest, IDLE_PRIORITY_DELAY);
+	}
+
+	public BluetoothLeConnectionStats getConnectionStats() {
+		return this.deviceState.getConnectionStats();
 	}
 
 	public void connect() throws IOException {
 		if (null == this.context) {
 			throw new IOException("Context is null. Call setContext(Context) before calling open().");
 		} else {
-			synchronized (connectLock) {
-				CURRENT_DATA_FROM_PRINTER_UUID = this.PARSER_DATA_FROM_PRINTER_CHAR_UUID;
-				CURRENT_DATA_TO_PRINTER_UUID = this.PARSER_DATA_TO_PRINTER_CHAR_UUID;
+			synchronized (this.connectLock) {
 				BluetoothLeDeviceConnectionData var2 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress);
 				BluetoothGatt var11;
 				if (var2 == null) {
@@ -131,14 +197,17 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 				}
 
 				var2.setPaired(false);
-				var2.getChannelReadOutputStreamMap().put(CURRENT_DATA_FROM_PRINTER_UUID, new ByteArrayOutputStream());
+				var2.getChannelReadOutputStreamMap().put(this.PARSER_DATA_FROM_PRINTER_CHAR_UUID, new BluetoothLeReceiveBuffer());
 				if (this.mBluetoothAdapter != null && this.macAddress != null) {
 					var11 = var2.getGatt();
 					if (null != var11) {
 						BluetoothDeviceCollection.incrementReferenceCount(this.macAddress);
 						var11.discoverServices();
 					} else {
-						long var4 = System.currentTimeMillis();
+						long var4 = System.nanoTime();
+						this.gattSuccess = true;
+						this.servicesFound = new CountDownLatch(1);
+						this.indicationsEnabled = new CountDownLatch(1);
 						this.mBluetoothDevice = this.mBluetoothAdapter.getRemoteDevice(this.macAddress);
 						BluetoothGatt var6 = null;
 						var6 = this.mBluetoothDevice.connectGatt(this.context, false, new ZebraBluetoothLeSocket.BluetoothLESocketGattCallback());
@@ -148,31 +217,9 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 							BluetoothDeviceCollection.incrementReferenceCount(this.macAddress);
 						}
 
-						while (null == this.sendDataCharacteristic) {
-							Sleeper.sleep(1L);
-							if (!this.gattSuccess) {
-								throw new IOException("Bluetooth LE Gatt failed to Connect");
-							}
-
-							if (System.currentTimeMillis() >= var4 + DEFAULT_CONNECTION_TIMEOUT_INTERVAL) {
-								this.close();
-								throw new IOException("Printer not found");
-							}
-						}
-
-						long var7 = System.currentTimeMillis();
-
-						while (!var2.isPaired()) {
-							Sleeper.sleep(1L);
-							if (!this.gattSuccess) {
-								throw new IOException("Bluetooth LE Gatt failed to Connect");
-							}
-
-							if (System.currentTimeMillis() >= var7 + DEFAULT_CONNECTION_TIMEOUT_INTERVAL) {
-								this.close();
-								throw new IOException("Passkey not entered");
-							}
-						}
+						this.awaitConnectionStep(this.servicesFound, "Printer not found");
+						this.awaitConnectionStep(this.indicationsEnabled, "Passkey not entered");
+						this.deviceState.onConnectionReady((System.nanoTime() - var4) / 1_000_000L);
 					}
 				} else {
 					throw new IOException("Invalid Bluetooth Configuration");
@@ -182,6 +229,15 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 	}
 
 	public void close() {
+		this.close(true);
+	}
+
+	/**
+	 * @param var1 whether to wait for the GATT to report the disconnection; callbacks pass false,
+	 *             since the disconnection is delivered on their own binder thread
+	 */
+	private void close(boolean var1) {
+		this.mainHandler.removeCallbacks(this.idlePriorityRequest);
 		if (this.receiverRegistered && null != this.context) {
 			this.receiverRegistered = false;
 			this.context.unregisterReceiver(this.mBondingBroadcastReceiver);
@@ -191,17 +247,15 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 			BluetoothDeviceCollection.decrementReferenceCount(this.macAddress);
 			if (BluetoothDeviceCollection.getReferenceCount(this.macAddress) == 0) {
 				this.mBluetoothDevice = null;
-				BluetoothLeDeviceConnectionData var1 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress);
-				if (null != var1) {
-					BluetoothGatt var2 = var1.getGatt();
-					if (var2 != null) {
+				BluetoothLeDeviceConnectionData var2 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress);
+				if (null != var2) {
+					BluetoothGatt var3 = var2.getGatt();
+					if (var3 != null) {
 						this.connectionIsClosing = true;
-						var2.disconnect();
+						var3.disconnect();
 
-						for (long var3 = System.currentTimeMillis(); null != BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress); Sleeper.sleep(10L)) {
-							if (System.currentTimeMillis() >= var3 + DEFAULT_CONNECTION_CLOSE_TIMEOUT_INTERVAL) {
-								this.removeConnectionData();
-							}
+						if (var1 && !this.deviceState.awaitConnectionDataRemoved(this.macAddress, DEFAULT_CONNECTION_CLOSE_TIMEOUT_INTERVAL)) {
+							this.removeConnectionData();
 						}
 					}
 				}
@@ -209,6 +263,65 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 		}
 	}
 
+	private void awaitConnectionStep(CountDownLatch var1, String var2) throws IOException {
+		boolean var3;
+		try {
+			var3 = var1.await(DEFAULT_CONNECTION_TIMEOUT_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException var5) {
+			Thread.currentThread().interrupt();
+			this.close();
+			throw new IOException("Bluetooth LE connection interrupted");
+		}
+
+		if (!this.gattSuccess) {
+			this.close();
+			throw new IOException("Bluetooth LE Gatt failed to Connect");
+		}
+
+		if (!var3) {
+			this.close();
+			throw new IOException(var2);
+		}
+	}
+
+	/**
+	 * Called from the GATT callbacks and the bonding receiver: a pending {@link #connect()} is woken
+	 * up and closes the socket itself, otherwise the socket is closed without blocking the caller.
+	 */
+	private void failConnection() {
+		this.gattSuccess = false;
+		CountDownLatch var1 = this.servicesFound;
+		CountDownLatch var2 = this.indicationsEnabled;
+		boolean var3 = var1 != null && var1.getCount() > 0 || var2 != null && var2.getCount() > 0;
+		signal(var1);
+		signal(var2);
+		if (!var3) {
+			this.close(false);
+		}
+	}
+
+	private static void signal(CountDownLatch var0) {
+		if (var0 != null) {
+			var0.countDown();
+		}
+	}
+
+	private void enableIndications(BluetoothGatt var1) {
+		BluetoothGattDescriptor var2 = this.receiveDataCharacteristic.getDescriptor(DATA_NOTIFICATION_UUID);
+		var2.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+		this.firstWriteSuccessful = var1.writeDescriptor(var2);
+		if (!this.firstWriteSuccessful) {
+			if (var1.getDevice().getBondState() != BluetoothDevice.BOND_BONDING) {
+				this.failConnection();
+			}
+			return;
+		}
+
+		var1.setCharacteristicNotification(this.receiveDataCharacteristic, true);
+		this.requestPreferredPhy(var1);
+		this.gattSuccess = true;
+	}
+
 	public OutputStream getOutputStream() throws IOException {
 		return new ZebraBluetoothLeSocket.BluetoothLeOutputStream();
 	}
@@ -218,42 +331,82 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 	}
 
 	public void setReadTimeout(int var1) throws IOException {
+		this.readTimeout = Math.max(var1, 0);
+	}
+
+	/**
+	 * Waits up to {@code var1} ms for the chunks handed to the GATT to be acknowledged, so closing
+	 * right after a write does not cut its last chunks off. Failures are left to the write itself.
+	 */
+	public void awaitPendingWrites(long var1) {
+		try {
+			this.writeFlowControl.drain(var1);
+		} catch (IOException var4) {
+		}
+	}
+
+	public BluetoothLeWriteStatistics getWriteStatistics() {
+		synchronized (this.writeLock) {
+			return new BluetoothLeWriteStatistics(this.totalBytesWritten, this.totalChunksWritten, this.totalWriteNanos);
+		}
+	}
+
+	/**
+	 * Switches between acknowledged writes (the default) and write-without-response streaming.
+	 * <p>
+	 * When streaming, up to {@code windowSize} chunks can be queued in the Bluetooth stack before
+	 * the writer waits for {@code onCharacteristicWrite}, and every {@code checkpointInterval}-th
+	 * chunk is sent as an acknowledged write so the printer paces the stream.
+	 */
+	public void setWriteWithoutResponse(boolean var1, int var2, int var3) {
+		synchronized (this.writeLock) {
+			this.writeWithoutResponse = var1;
+			this.writeWindowSize = var1 ? Math.max(var2, 1) : 1;
+			this.checkpointInterval = var1 ? Math.max(var3, 1) : 1;
+		}
+	}
+
+	private void sendChunk(BluetoothGatt var1, byte[] var2, boolean var3) throws IOException {
+		this.writeFlowControl.acquire(DEFAULT_WRITE_TIMEOUT_INTERVAL);
+		this.sendDataCharacteristic.setWriteType(var3 ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+		this.sendDataCharacteristic.setValue(var2);
+		while (!var1.writeCharacteristic(this.sendDataCharacteristic)) {
+			if (!this.writeFlowControl.awaitOtherCompletion(DEFAULT_WRITE_TIMEOUT_INTERVAL)) {
+				this.writeFlowControl.cancel();
+				throw new IOException("Bluetooth LE Write failed");
+			}
+		}
 	}
 
 	protected void removeConnectionData() {
 		BluetoothLeDeviceConnectionData var1 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress);
 		if (null != var1) {
+			this.deviceState.resetConnectionStats();
 			var1.getGatt().close();
 			BluetoothDeviceCollection.removeBluetoothLeDeviceConnectionData(this.macAddress);
+			this.deviceState.onConnectionDataRemoved();
 		}
 	}
 
-	class BluetoothLeInputStream extends InputStream {
+	private BluetoothLeReceiveBuffer getReceiveBuffer() throws IOException {
+		BluetoothLeDeviceConnectionData var1 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(this.macAddress);
+		if (var1 == null) {
+			throw new IOException("Bluetooth LE connection closed");
+		}
+		ByteArrayOutputStream var2 = (ByteArrayOutputStream) var1.getChannelReadOutputStreamMap().get(this.PARSER_DATA_FROM_PRINTER_CHAR_UUID);
+		if (!(var2 instanceof BluetoothLeReceiveBuffer)) {
+			throw new IOException("No receive buffer found for connection.");
+		}
+		return (BluetoothLeReceiveBuffer) var2;
+	}
 
-		byte[] tempBufferedData = null;
+	class BluetoothLeInputStream extends InputStream {
 
 		public BluetoothLeInputStream() {
 		}
 
 		public int read() throws IOException {
-			if (this.tempBufferedData != null && this.tempBufferedData.length > 0) {
-				byte var5 = this.tempBufferedData[0];
-				this.tempBufferedData = Arrays.copyOfRange(this.tempBufferedData, 1, this.tempBufferedData.length);
-				return var5;
-			} else {
-				BluetoothLeDeviceConnectionData var1 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress);
-				ByteArrayOutputStream var2 = (ByteArrayOutputStream) var1.getChannelReadOutputStreamMap().get(ZebraBluetoothLeSocket.this.PARSER_DATA_FROM_PRINTER_CHAR_UUID);
-				this.tempBufferedData = var2.toByteArray();
-				int var3 = this.tempBufferedData.length;
-				var2.reset();
-				if (var3 <= 0) {
-					return -1;
-				} else {
-					byte var4 = this.tempBufferedData[0];
-					this.tempBufferedData = Arrays.copyOfRange(this.tempBufferedData, 1, this.tempBufferedData.length);
-					return var4;
-				}
-			}
+			return ZebraBluetoothLeSocket.this.getReceiveBuffer().read(ZebraBluetoothLeSocket.this.readTimeout);
 		}
 
 		public int read(byte[] var1) throws IOException {
@@ -261,37 +414,7 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 		}
 
 		public int read(byte[] var1, int var2, int var3) throws IOException {
-			if (this.tempBufferedData != null && this.tempBufferedData.length > 0) {
-				int var9 = 0;
-
-				for (int var10 = 0; var10 < var3 && var2 + var10 < var1.length && var10 < this.tempBufferedData.length; ++var10) {
-					var1[var2 + var10] = this.tempBufferedData[var10];
-					++var9;
-				}
-
-				if (var9 < this.tempBufferedData.length) {
-					this.tempBufferedData = Arrays.copyOfRange(this.tempBufferedData, var9, this.tempBufferedData.length);
-				} else {
-					this.tempBufferedData = null;
-				}
-
-				return var9;
-			} else {
-				BluetoothLeDeviceConnectionData var4 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress);
-				ByteArrayOutputStream var5 = (ByteArrayOutputStream) var4.getChannelReadOutputStreamMap().get(ZebraBluetoothLeSocket.this.PARSER_DATA_FROM_PRINTER_CHAR_UUID);
-				byte[] var6 = var5.toByteArray();
-				int var7 = var6.length;
-				var5.reset();
-				if (var7 == -1) {
-					return -1;
-				} else {
-					for (int var8 = 0; var8 < var7; ++var8) {
-						var1[var2 + var8] = var6[var8];
-					}
-
-					return var7;
-				}
-			}
+			return ZebraBluetoothLeSocket.this.getReceiveBuffer().read(var1, var2, var3, ZebraBluetoothLeSocket.this.readTimeout);
 		}
 
 		public long skip(long var1) throws IOException {
@@ -299,17 +422,7 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 		}
 
 		public int available() throws IOException {
-			if (this.tempBufferedData != null && this.tempBufferedData.length > 0) {
-				return this.tempBufferedData.length;
-			} else {
-				byte[] var1 = new byte[1024];
-				int var2 = this.read(var1);
-				if (var2 > 0) {
-					this.tempBufferedData = Arrays.copyOfRange(var1, 0, var2);
-				}
-
-				return var2 >= 0 ? var2 : 0;
-			}
+			return ZebraBluetoothLeSocket.this.getReceiveBuffer().available();
 		}
 
 		public boolean markSupported() {
@@ -322,14 +435,27 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 		public BluetoothLeOutputStream() {
 		}
 
+		private final byte[] singleByte = new byte[1];
+
 		public void write(int var1) throws IOException {
-			this.write(new byte[]{(byte) var1});
+			synchronized (ZebraBluetoothLeSocket.this.writeLock) {
+				this.singleByte[0] = (byte) var1;
+				this.write(this.singleByte, 0, 1);
+			}
 		}
 
 		public void write(byte[] var1) throws IOException {
-			synchronized (ZebraBluetoothLeSocket.writeLock) {
-				BluetoothLeDeviceConnectionData var3 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress);
-				BluetoothGatt var4 = var3.getGatt();
+			this.write(var1, 0, var1.length);
+		}
+
+		public void write(byte[] var1, int var2, int var3) throws IOException {
+			if (var2 < 0 || var3 < 0 || var2 + var3 > var1.length) {
+				throw new IndexOutOfBoundsException();
+			}
+
+			synchronized (ZebraBluetoothLeSocket.this.writeLock) {
+				BluetoothLeDeviceConnectionData var20 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress);
+				BluetoothGatt var4 = var20.getGatt();
 				if (var4 == null) {
 					throw new IOException("no bluetoothGatt found for connection.");
 				} else {
@@ -338,59 +464,60 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 						throw new IOException("Gatt Service not found.");
 					} else {
 						ZebraBluetoothLeSocket.this.sendDataCharacteristic = var5.getCharacteristic(ZebraBluetoothLeSocket.this.PARSER_DATA_TO_PRINTER_CHAR_UUID);
-						int var6;
-						if (var3.isFirstWriteForThisChannel()) {
-							var3.setFirstWriteForThisChannel(false);
-							ZebraBluetoothLeSocket.this.requestLargerMtu(var4);
-							var6 = 100;
-
-							while (var3.isWaitingForMtuToChange() && var6-- > 0) {
-								Sleeper.sleep(100L);
+						if (var20.isFirstWriteForThisChannel()) {
+							var20.setFirstWriteForThisChannel(false);
+							if (ZebraBluetoothLeSocket.this.requestLargerMtu(var4)) {
+								ZebraBluetoothLeSocket.this.deviceState.awaitMtuChanged(var20, DEFAULT_MTU_CHANGE_TIMEOUT_INTERVAL);
+							} else {
+								var20.setIsWaitingForMtuToChange(false);
 							}
 						}
 
-						var6 = var3.getMtu();
-						int var7 = 0;
+						int var6 = var20.getMtu();
+						int var7 = var2;
+						int var19 = var2 + var3;
 						int var8 = 0;
+						int var9 = 0;
+						int var10 = ZebraBluetoothLeSocket.this.checkpointInterval;
+						ZebraBluetoothLeSocket.this.writeFlowControl.begin(ZebraBluetoothLeSocket.this.writeWindowSize);
+						long var11 = System.nanoTime();
+
+						try {
+							while (var7 < var19) {
+								int var13 = var7 + var6;
+								if (var13 >= var19) {
+									var13 = var19;
+								}
 
-						while (var7 < var1.length) {
-							int var9 = var7 + var6;
-							if (var9 >= var1.length) {
-								var9 = var1.length;
-							}
+								byte[] var14 = ZebraBluetoothLeSocket.this.chunkBuffers.chunk(var1, var7, var13 - var7, var6);
+								var8 += var14.length;
+								var20.getChannelWriteFinishedMap().put(ZebraBluetoothLeSocket.this.PARSER_DATA_TO_PRINTER_CHAR_UUID, false);
+								boolean var15 = ++var9 % var10 == 0;
+								ZebraBluetoothLeSocket.this.sendChunk(var4, var14, var15);
+								if (var15) {
+									ZebraBluetoothLeSocket.this.writeFlowControl.drain(ZebraBluetoothLeSocket.DEFAULT_WRITE_TIMEOUT_INTERVAL);
+								}
 
-							byte[] var10 = Arrays.copyOfRange(var1, var7, var9);
-							var8 += var10.length;
-							Map var11 = var3.getChannelWriteFinishedMap();
-							var11.put(ZebraBluetoothLeSocket.this.PARSER_DATA_TO_PRINTER_CHAR_UUID, false);
-							ZebraBluetoothLeSocket.this.sendDataCharacteristic.setValue(var10);
-							boolean var12 = var4.writeCharacteristic(ZebraBluetoothLeSocket.this.sendDataCharacteristic);
-							if (!var12) {
-								throw new IOException("Bluetooth LE Write failed");
+								var7 = var13;
 							}
 
-							var7 = var9;
-							long var13 = System.currentTimeMillis();
-
-							while (!(Boolean) var11.get(ZebraBluetoothLeSocket.this.PARSER_DATA_TO_PRINTER_CHAR_UUID)) {
-								Sleeper.sleep(1L);
-								if (System.currentTimeMillis() >= var13 + ZebraBluetoothLeSocket.DEFAULT_WRITE_TIMEOUT_INTERVAL) {
-									throw new IOException("Bluetooth LE Write timed out");
-								}
-							}
+							ZebraBluetoothLeSocket.this.writeFlowControl.drain(ZebraBluetoothLeSocket.DEFAULT_WRITE_TIMEOUT_INTERVAL);
+						} catch (IOException var16) {
+							ZebraBluetoothLeSocket.this.writeFlowControl.reset();
+							throw var16;
 						}
 
-						if (var8 != var1.length) {
+						ZebraBluetoothLeSocket.this.totalBytesWritten += var8;
+						ZebraBluetoothLeSocket.this.totalChunksWritten += var9;
+						ZebraBluetoothLeSocket.this.totalWriteNanos += System.nanoTime() - var11;
+
+						if (var8 != var3) {
 							throw new IOException("Amount of data written does not match amount of data brought in to be written.");
 						}
 					}
 				}
 			}
 		}
-
-		public void write(byte[] var1, int var2, int var3) throws IOException {
-			this.write(Arrays.copyOfRange(var1, var2, var2 + var3));
-		}
 	}
 
 	class BluetoothLESocketGattCallback extends BluetoothGattCallback {
@@ -399,72 +526,51 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 		}
 
 		public void onConnectionStateChange(BluetoothGatt var1, int var2, int var3) {
-			if (var3 == 2) {
+			if (var3 == BluetoothProfile.STATE_CONNECTED) {
 				var1.discoverServices();
-			} else if (var3 == 0) {
+			} else if (var3 == BluetoothProfile.STATE_DISCONNECTED) {
+				ZebraBluetoothLeSocket.this.writeFlowControl.reset();
 				ZebraBluetoothLeSocket.this.removeConnectionData();
-			} else if (var3 != 1) {
-				ZebraBluetoothLeSocket.this.gattSuccess = false;
-				ZebraBluetoothLeSocket.this.close();
+				if (!ZebraBluetoothLeSocket.this.connectionIsClosing) {
+					ZebraBluetoothLeSocket.this.gattSuccess = false;
+					signal(ZebraBluetoothLeSocket.this.servicesFound);
+					signal(ZebraBluetoothLeSocket.this.indicationsEnabled);
+				}
+			} else if (var3 != BluetoothProfile.STATE_CONNECTING) {
+				ZebraBluetoothLeSocket.this.failConnection();
 			}
 
 			super.onConnectionStateChange(var1, var2, var3);
 		}
 
 		public void onServicesDiscovered(BluetoothGatt var1, int var2) {
-			if (var2 == 0) {
+			if (var2 == BluetoothGatt.GATT_SUCCESS) {
 				BluetoothGattService var3 = var1.getService(ZebraBluetoothLeSocket.PARSER_DATA_SERVICE_UUID);
 				if (null != var3) {
-					ZebraBluetoothLeSocket.this.sendDataCharacteristic = var3.getCharacteristic(ZebraBluetoothLeSocket.CURRENT_DATA_TO_PRINTER_UUID);
-					ZebraBluetoothLeSocket.this.receiveDataCharacteristic = var3.getCharacteristic(ZebraBluetoothLeSocket.CURRENT_DATA_FROM_PRINTER_UUID);
+					ZebraBluetoothLeSocket.this.sendDataCharacteristic = var3.getCharacteristic(ZebraBluetoothLeSocket.this.PARSER_DATA_TO_PRINTER_CHAR_UUID);
+					ZebraBluetoothLeSocket.this.receiveDataCharacteristic = var3.getCharacteristic(ZebraBluetoothLeSocket.this.PARSER_DATA_FROM_PRINTER_CHAR_UUID);
+					signal(ZebraBluetoothLeSocket.this.servicesFound);
 
-					while (var1.getDevice().getBondState() == 11) {
-						Sleeper.sleep(10L);
-						if (ZebraBluetoothLeSocket.this.connectionIsClosing) {
-							return;
-						}
+					// While the printer is bonding the bonding receiver enables indications once it is done
+					if (var1.getDevice().getBondState() != BluetoothDevice.BOND_BONDING) {
+						ZebraBluetoothLeSocket.this.enableIndications(var1);
 					}
-
-					BluetoothGattDescriptor var4 = ZebraBluetoothLeSocket.this.receiveDataCharacteristic.getDescriptor(ZebraBluetoothLeSocket.DATA_NOTIFICATION_UUID);
-					var4.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
-					ZebraBluetoothLeSocket.this.firstWriteSuccessful = var1.writeDescriptor(var4);
-					if (!ZebraBluetoothLeSocket.this.firstWriteSuccessful) {
-						if (var1.getDevice().getBondState() != 11) {
-							ZebraBluetoothLeSocket.this.gattSuccess = false;
-							ZebraBluetoothLeSocket.this.close();
-							return;
-						}
-
-						while (var1.getDevice().getBondState() == 11) {
-							Sleeper.sleep(10L);
-							if (ZebraBluetoothLeSocket.this.connectionIsClosing) {
-								return;
-							}
-						}
-					} else {
-						while (var1.getDevice().getBondState() == 11) {
-							Sleeper.sleep(10L);
-							if (ZebraBluetoothLeSocket.this.connectionIsClosing) {
-								return;
-							}
-						}
-					}
-
-					var1.setCharacteristicNotification(ZebraBluetoothLeSocket.this.receiveDataCharacteristic, true);
-					ZebraBluetoothLeSocket.this.gattSuccess = true;
 				} else {
-					ZebraBluetoothLeSocket.this.gattSuccess = false;
-					ZebraBluetoothLeSocket.this.close();
+					ZebraBluetoothLeSocket.this.failConnection();
 				}
 			} else {
-				ZebraBluetoothLeSocket.this.gattSuccess = false;
-				ZebraBluetoothLeSocket.this.close();
+				ZebraBluetoothLeSocket.this.failConnection();
 			}
 		}
 
 		public void onCharacteristicWrite(BluetoothGatt var1, BluetoothGattCharacteristic var2, int var3) {
 			Map var4 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress).getChannelWriteFinishedMap();
 			var4.put(var2.getUuid(), true);
+			if (var3 == BluetoothGatt.GATT_SUCCESS) {
+				ZebraBluetoothLeSocket.this.writeFlowControl.onChunkWritten();
+			} else {
+				ZebraBluetoothLeSocket.this.writeFlowControl.onChunkFailed(var3);
+			}
 			super.onCharacteristicWrite(var1, var2, var3);
 		}
 
@@ -479,18 +585,41 @@ public class ZebraBluetoothLeSocket implements ZebraSocket {
 		}
 
 		public void onDescriptorWrite(BluetoothGatt var1, BluetoothGattDescriptor var2, int var3) {
-			if (var3 == 0) {
+			if (var3 == BluetoothGatt.GATT_SUCCESS) {
 				BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress).setPaired(true);
-			} else if (var3 == 132) {
-				ZebraBluetoothLeSocket.this.gattSuccess = false;
-				ZebraBluetoothLeSocket.this.close();
+				signal(ZebraBluetoothLeSocket.this.indicationsEnabled);
+			} else if (var3 == GATT_BUSY) {
+				ZebraBluetoothLeSocket.this.failConnection();
 			}
 		}
 
 		public void onMtuChanged(BluetoothGatt var1, int var2, int var3) {
 			BluetoothLeDeviceConnectionData var4 = BluetoothDeviceCollection.findBluetoothLeDeviceConnectionData(ZebraBluetoothLeSocket.this.macAddress);
-			var4.setMtu(var2 - 3);
+			var4.setMtu(var2 - MTU_OFFSET);
 			var4.setIsWaitingForMtuToChange(false);
+			ZebraBluetoothLeSocket.this.deviceState.onMtuChanged(var2);
+		}
+
+		public void onPhyUpdate(BluetoothGatt var1, int var2, int var3, int var4) {
+			if (var4 == BluetoothGatt.GATT_SUCCESS) {
+				ZebraBluetoothLeSocket.this.deviceState.onPhyUpdated(var2, var3);
+			}
+		}
+
+		public void onPhyRead(BluetoothGatt var1, int var2, int var3, int var4) {
+			if (var4 == BluetoothGatt.GATT_SUCCESS) {
+				ZebraBluetoothLeSocket.this.deviceState.onPhyUpdated(var2, var3);
+			}
+		}
+
+		/**
+		 * Hidden in the public SDK, but invoked by the framework on API 26+ whenever the
+		 * connection parameters change: declaring it here is the only way to learn the interval.
+		 */
+		public void onConnectionUpdated(BluetoothGatt var1, int var2, int var3, int var4, int var5) {
+			if (var5 == BluetoothGatt.GATT_SUCCESS) {
+				ZebraBluetoothLeSocket.this.deviceState.onConnectionUpdated(var2, var3, var4);
+			}
 		}
 	}
 }
@@ -0,0 +1,84 @@
+package com.dadino.zebraprint.library
+
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.consumeAsFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class PrinterDiscoveryProgressTest {
+	private var now = 0L
+
+	@Test(timeout = 10_000L)
+	fun burstWithinOneIntervalIsMergedIntoOneProgress() {
+		val emitted = throttle {
+			send(found("10.0.0.1"))
+			send(found("10.0.0.2"))
+			send(found("10.0.0.3"))
+			now += INTERVAL_MILLIS
+			send(found("10.0.0.4"))
+		}
+
+		assertEquals(listOf(listOf("10.0.0.1"), listOf("10.0.0.2", "10.0.0.3", "10.0.0.4")), emitted.map { it.changedAddresses() })
+		assertEquals(listOf("10.0.0.4"), emitted.last().printerList.map { it.address })
+	}
+
+	@Test(timeout = 10_000L)
+	fun lastPendingProgressIsFlushedOnCompletion() {
+		val emitted = throttle {
+			send(found("10.0.0.1"))
+			send(found("10.0.0.2"))
+			send(found("10.0.0.3"))
+		}
+
+		assertEquals(listOf(listOf("10.0.0.1"), listOf("10.0.0.2", "10.0.0.3")), emitted.map { it.changedAddresses() })
+	}
+
+	@Test(timeout = 10_000L)
+	fun pendingProgressIsFlushedBeforeTheError() {
+		val emitted = arrayListOf<PrinterDiscoveryProgress>()
+		var error: Throwable? = null
+		val upstream = flow {
+			emit(found("10.0.0.1"))
+			emit(found("10.0.0.2"))
+			throw NoSuchElementException()
+		}
+
+		runBlocking { upstream.throttle(INTERVAL_MILLIS) { now }.catch { error = it }.collect { emitted.add(it) } }
+
+		assertEquals(listOf(listOf("10.0.0.1"), listOf("10.0.0.2")), emitted.map { it.changedAddresses() })
+		assertEquals(NoSuchElementException::class.java, error?.javaClass)
+	}
+
+	/**
+	 * The upstream is a rendezvous channel, so every progress is handled by the throttle before the next one is sent
+	 * and [now] can be moved between them.
+	 */
+	private fun throttle(producer: suspend SendChannel<PrinterDiscoveryProgress>.() -> Unit): List<PrinterDiscoveryProgress> {
+		return runBlocking {
+			val upstream = Channel<PrinterDiscoveryProgress>()
+			launch {
+				upstream.producer()
+				upstream.close()
+			}
+			upstream.consumeAsFlow().throttle(INTERVAL_MILLIS) { now }.toList()
+		}
+	}
+
+	private fun found(address: String): PrinterDiscoveryProgress {
+		val printer = Printer(address = address, friendlyName = null, typeId = PrinterType.Network.id)
+		return PrinterDiscoveryProgress(printerList = listOf(printer), message = null, changes = listOf(PrinterChange.Added(printer)))
+	}
+
+	private fun PrinterDiscoveryProgress.changedAddresses(): List<String> = changes.map { it.printer.address }
+
+	companion object {
+		// Long enough that the real timeout of the throttle never fires: only the fake clock moves the interval on
+		private const val INTERVAL_MILLIS = 60_000L
+	}
+}
@@ -0,0 +1,65 @@
+package com.dadino.zebraprint.library
+
+import com.zebra.sdk.printer.discovery.DeviceFilter
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class PrinterFinderTest {
+
+	@Test
+	fun changesAreDerivedFromWholeLists() {
+		val finder = object : IPrinterFinder {
+			override suspend fun discoverPrinters(filter: DeviceFilter?, useStrictFilteringForGenericDevices: Boolean): Flow<List<Printer>> {
+				return flowOf(
+					listOf(network("10.0.0.1")),
+					listOf(network("10.0.0.1"), network("10.0.0.2")),
+					listOf(network("10.0.0.1"), network("10.0.0.2")),
+					listOf(network("10.0.0.1", name = "ZT410"), network("10.0.0.2"))
+				)
+			}
+		}
+
+		val changes = runBlocking { finder.discoverPrinterChanges(null, false).toList() }
+
+		assertEquals(listOf(listOf(network("10.0.0.1")), listOf(network("10.0.0.2")), listOf(network("10.0.0.1", name = "ZT410"))), changes)
+	}
+
+	@Test
+	fun wholeListsAreAccumulatedFromChanges() {
+		val changes = flowOf(
+			listOf(network("10.0.0.1")),
+			listOf(network("10.0.0.2")),
+			listOf(network("10.0.0.2")),
+			listOf(network("10.0.0.1", name = "ZT410"))
+		)
+
+		val lists = runBlocking { changes.accumulatePrinters().toList() }
+
+		assertEquals(
+			listOf(
+				listOf(network("10.0.0.1")),
+				listOf(network("10.0.0.1"), network("10.0.0.2")),
+				listOf(network("10.0.0.1", name = "ZT410"), network("10.0.0.2"))
+			),
+			lists
+		)
+	}
+
+	@Suppress("DEPRECATION")
+	@Test
+	fun updateWithStillMergesByAddressAndType() {
+		val printers = arrayListOf(network("10.0.0.1"), network("10.0.0.2"))
+
+		printers.updateWith(listOf(network("10.0.0.2", name = "ZT410"), network("10.0.0.3")))
+
+		assertEquals(listOf(network("10.0.0.1"), network("10.0.0.2", name = "ZT410"), network("10.0.0.3")), printers)
+	}
+
+	private fun network(address: String, name: String? = null): Printer {
+		return Printer(address = address, friendlyName = name, typeId = PrinterType.Network.id)
+	}
+}
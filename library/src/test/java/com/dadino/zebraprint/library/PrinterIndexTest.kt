@@ -0,0 +1,100 @@
+package com.dadino.zebraprint.library
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PrinterIndexTest {
+
+	@Test
+	fun putReportsWhatChanged() {
+		val index = PrinterIndex()
+
+		assertTrue(index.put(network("10.0.0.1")) is PrinterChange.Added)
+		assertNull(index.put(network("10.0.0.1")))
+		assertTrue(index.put(network("10.0.0.1", name = "ZT410")) is PrinterChange.Updated)
+		assertTrue(index.put(ble("10.0.0.1")) is PrinterChange.Added)
+		assertEquals(2, index.size)
+	}
+
+	@Test
+	fun updatesKeepTheFirstFoundOrder() {
+		val index = PrinterIndex()
+		index.putAll(listOf(network("10.0.0.1"), network("10.0.0.2"), network("10.0.0.3")))
+
+		index.put(network("10.0.0.1", name = "ZT410"))
+
+		assertEquals(listOf(network("10.0.0.1", name = "ZT410"), network("10.0.0.2"), network("10.0.0.3")), index.snapshot())
+	}
+
+	@Test
+	fun removeAllReportsTheRemovedPrinters() {
+		val index = PrinterIndex()
+		index.putAll(listOf(network("10.0.0.1"), network("10.0.0.2", stale = true), network("10.0.0.3", stale = true)))
+
+		val removed = index.removeAll { it.isStale }
+
+		assertEquals(listOf("10.0.0.2", "10.0.0.3"), removed.map { it.printer.address })
+		assertTrue(removed.all { it is PrinterChange.Removed })
+		assertEquals(listOf(network("10.0.0.1")), index.snapshot())
+		assertTrue(index.removeAll { it.isStale }.isEmpty())
+	}
+
+	@Test
+	fun snapshotIsSharedUntilTheNextChange() {
+		val index = PrinterIndex()
+		index.put(network("10.0.0.1"))
+
+		val first = index.snapshot()
+		index.put(network("10.0.0.1"))
+		assertSame(first, index.snapshot())
+
+		index.put(network("10.0.0.2"))
+		assertEquals(listOf(network("10.0.0.1"), network("10.0.0.2")), index.snapshot())
+	}
+
+	@Test
+	fun snapshotsKeepTheirVersion() {
+		val index = PrinterIndex()
+		index.putAll(listOf(network("10.0.0.1"), network("10.0.0.2")))
+		val before = index.snapshot()
+
+		index.put(network("10.0.0.3"))
+		index.put(network("10.0.0.1", name = "ZT410"))
+		index.removeAll { it.address == "10.0.0.2" }
+		val after = index.snapshot()
+
+		assertEquals(listOf(network("10.0.0.1"), network("10.0.0.2")), before)
+		assertEquals(listOf(network("10.0.0.1", name = "ZT410"), network("10.0.0.3")), after)
+	}
+
+	@Test
+	fun onlyTheSnapshotsReadAreMaterialized() {
+		val index = PrinterIndex()
+		val snapshots = (1..200).map { i ->
+			index.put(network("10.0.${i / 256}.${i % 256}"))
+			index.snapshot() as PrinterSnapshot
+		}
+
+		assertTrue(snapshots.none { it.isMaterialized })
+
+		assertEquals(200, snapshots.last().size)
+		assertTrue(snapshots.last().isMaterialized)
+		assertFalse(snapshots[99].isMaterialized)
+
+		// Older snapshots are still rebuilt at their own version
+		assertEquals(100, snapshots[99].size)
+		assertEquals(network("10.0.0.100"), snapshots[99].last())
+	}
+
+	private fun network(address: String, name: String? = null, stale: Boolean = false): Printer {
+		return Printer(address = address, friendlyName = name, typeId = PrinterType.Network.id, isStale = stale)
+	}
+
+	private fun ble(address: String): Printer {
+		return Printer(address = address, friendlyName = null, typeId = PrinterType.BLE.id)
+	}
+}
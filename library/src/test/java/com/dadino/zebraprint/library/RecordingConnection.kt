@@ -0,0 +1,44 @@
+package com.dadino.zebraprint.library
+
+import com.zebra.sdk.comm.Connection
+import java.io.ByteArrayOutputStream
+import java.lang.reflect.Proxy
+
+/**
+ * Connection that is always open and records what is written to it; any other call fails. With [keepBytes] false
+ * it only counts the writes and their bytes, allocating nothing.
+ */
+internal class RecordingConnection(private val keepBytes: Boolean = true) : Connection by unsupportedConnection() {
+	private val output = ByteArrayOutputStream()
+	val writes = ArrayList<Int>()
+	var writeCount = 0
+		private set
+	var bytesWritten = 0L
+		private set
+
+	val bytes: ByteArray
+		get() = output.toByteArray()
+
+	override fun isConnected(): Boolean = true
+
+	override fun write(bytes: ByteArray) {
+		write(bytes, 0, bytes.size)
+	}
+
+	override fun write(bytes: ByteArray, offset: Int, length: Int) {
+		writeCount++
+		bytesWritten += length
+		if (keepBytes) {
+			writes.add(length)
+			output.write(bytes, offset, length)
+		}
+	}
+
+	override fun toString(): String = "RecordingConnection"
+}
+
+private fun unsupportedConnection(): Connection {
+	return Proxy.newProxyInstance(Connection::class.java.classLoader, arrayOf(Connection::class.java)) { _, method, _ ->
+		throw UnsupportedOperationException(method.name)
+	} as Connection
+}
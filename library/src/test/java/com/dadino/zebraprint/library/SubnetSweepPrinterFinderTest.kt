@@ -0,0 +1,94 @@
+package com.dadino.zebraprint.library
+
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.net.Inet4Address
+import java.net.InetAddress
+import java.net.ServerSocket
+
+class SubnetSweepPrinterFinderTest {
+
+	@Test
+	fun subnetHostsOfA24SkipNetworkBroadcastAndSelf() {
+		val hosts = SubnetSweepPrinterFinder.subnetHosts(ipv4("192.168.1.10"), 24).map { it.hostAddress }
+
+		assertEquals(253, hosts.size)
+		assertEquals("192.168.1.1", hosts.first())
+		assertEquals("192.168.1.254", hosts.last())
+		assertFalse("192.168.1.10" in hosts)
+		assertFalse("192.168.1.0" in hosts)
+		assertFalse("192.168.1.255" in hosts)
+	}
+
+	@Test
+	fun widerSubnetsAreSweptOnTheirOwn24() {
+		val hosts = SubnetSweepPrinterFinder.subnetHosts(ipv4("10.1.2.3"), 16).map { it.hostAddress }
+
+		assertEquals(253, hosts.size)
+		assertTrue(hosts.all { it.startsWith("10.1.2.") })
+	}
+
+	@Test
+	fun narrowSubnets() {
+		assertEquals(listOf("10.0.0.2"), SubnetSweepPrinterFinder.subnetHosts(ipv4("10.0.0.1"), 30).map { it.hostAddress })
+		assertTrue(SubnetSweepPrinterFinder.subnetHosts(ipv4("10.0.0.1"), 31).isEmpty())
+		assertTrue(SubnetSweepPrinterFinder.subnetHosts(ipv4("10.0.0.1"), 32).isEmpty())
+	}
+
+	@Test(timeout = 10_000L)
+	fun sweepFindsHostsListeningOnAnyPort() {
+		val loopback = InetAddress.getByName(LOOPBACK_ADDRESS)
+		ServerSocket(0, 50, loopback).use { printer ->
+			val closedPort = closedPort()
+
+			val found = sweep(listOf(loopback), listOf(closedPort, printer.localPort))
+
+			assertEquals(listOf(loopback), found)
+		}
+	}
+
+	@Test(timeout = 10_000L)
+	fun sweepSkipsHostsWithClosedPorts() {
+		val loopback = InetAddress.getByName(LOOPBACK_ADDRESS)
+
+		assertTrue(sweep(listOf(loopback), listOf(closedPort(), closedPort())).isEmpty())
+	}
+
+	@Test(timeout = 10_000L)
+	fun sweepProbesEveryHost() {
+		val loopback = InetAddress.getByName(LOOPBACK_ADDRESS)
+		ServerSocket(0, 50, loopback).use { printer ->
+			val hosts = List(20) { loopback }
+
+			val found = sweep(hosts, listOf(printer.localPort), parallelism = 4)
+
+			assertEquals(hosts.size, found.size)
+		}
+	}
+
+	private fun sweep(hosts: List<InetAddress>, ports: List<Int>, parallelism: Int = SubnetSweepPrinterFinder.DEFAULT_PARALLELISM): List<InetAddress> {
+		return runBlocking {
+			withTimeout(5_000L) {
+				SubnetSweepPrinterFinder.sweep(hosts, ports, SubnetSweepPrinterFinder.DEFAULT_CONNECT_TIMEOUT_MILLIS, parallelism).toList()
+			}
+		}
+	}
+
+	/**
+	 * A loopback port nobody listens on anymore, so connecting to it is refused.
+	 */
+	private fun closedPort(): Int {
+		return ServerSocket(0, 1, InetAddress.getByName(LOOPBACK_ADDRESS)).use { it.localPort }
+	}
+
+	private fun ipv4(address: String): Inet4Address = InetAddress.getByName(address) as Inet4Address
+
+	companion object {
+		private const val LOOPBACK_ADDRESS = "127.0.0.1"
+	}
+}
@@ -0,0 +1,59 @@
+package com.dadino.zebraprint.library
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Measures the garbage produced per label by [ZplEncoder] compared with `String.toByteArray`, reading the bytes
+ * allocated by the current thread through the HotSpot [com.sun.management.ThreadMXBean].
+ */
+class ZplEncoderAllocationBenchmark {
+
+	@Test
+	fun encoderProducesNoGarbagePerLabel() {
+		val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+		assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+		threads!!.isThreadAllocatedMemoryEnabled = true
+
+		val labels = List(DISTINCT_LABELS) { label(it) }
+		val encoder = ZplEncoder()
+		val encoderConnection = RecordingConnection(keepBytes = false)
+		val toByteArrayConnection = RecordingConnection(keepBytes = false)
+		val encode: (String) -> Unit = { encoder.write(encoderConnection, it) }
+		val toByteArray: (String) -> Unit = { toByteArrayConnection.write(it.toByteArray()) }
+
+		// Warm up both paths so that the JIT does not allocate while measuring
+		allocatedPerLabel(threads, labels, encode)
+		allocatedPerLabel(threads, labels, toByteArray)
+
+		val encoderBytes = allocatedPerLabel(threads, labels, encode)
+		val toByteArrayBytes = allocatedPerLabel(threads, labels, toByteArray)
+
+		println("ZplEncoder: $encoderBytes bytes allocated per label")
+		println("String.toByteArray: $toByteArrayBytes bytes allocated per label")
+		assertEquals(toByteArrayConnection.bytesWritten, encoderConnection.bytesWritten)
+		assertTrue("ZplEncoder allocated $encoderBytes bytes per label", encoderBytes < 1.0)
+		assertTrue(toByteArrayBytes >= labels.first().length)
+	}
+
+	private fun allocatedPerLabel(threads: com.sun.management.ThreadMXBean, labels: List<String>, print: (String) -> Unit): Double {
+		val threadId = Thread.currentThread().id
+		val before = threads.getThreadAllocatedBytes(threadId)
+		for (i in 0 until LABELS) {
+			print(labels[i % labels.size])
+		}
+		return (threads.getThreadAllocatedBytes(threadId) - before).toDouble() / LABELS
+	}
+
+	private fun label(index: Int): String {
+		return "^XA^CI28^FO50,50^A0N,40,40^FDSpedizione n° $index^FS^FO50,120^BCN,100,Y,N,N^FD${1_000_000 + index}^FS^XZ"
+	}
+
+	companion object {
+		private const val DISTINCT_LABELS = 100
+		private const val LABELS = 100_000
+	}
+}
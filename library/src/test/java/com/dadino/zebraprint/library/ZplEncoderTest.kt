@@ -0,0 +1,118 @@
+package com.dadino.zebraprint.library
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.charset.Charset
+
+class ZplEncoderTest {
+
+	@Test
+	fun asciiIsWrittenAsIs() {
+		val zpl = "^XA^FO50,50^A0N,40,40^FDHello^FS^XZ"
+
+		assertArrayEquals(zpl.toByteArray(Charsets.US_ASCII), encode(zpl, ZplCodePage.ASCII))
+		assertArrayEquals(zpl.toByteArray(Charsets.US_ASCII), encode(zpl, ZplCodePage.UTF_8))
+	}
+
+	@Test
+	fun utf8MatchesTheJdkEncoder() {
+		val zpl = "^XA^FDÀ la carte, 10 €, Ωmega, 漢字, 😀^FS^XZ"
+
+		assertArrayEquals(zpl.toByteArray(Charsets.UTF_8), encode(zpl, ZplCodePage.UTF_8))
+	}
+
+	@Test
+	fun cp850MatchesTheJdkCharset() {
+		val upperHalf = String(ByteArray(128) { (0x80 + it).toByte() }, Charset.forName("IBM850"))
+
+		assertArrayEquals(upperHalf.toByteArray(Charset.forName("IBM850")), encode(upperHalf, ZplCodePage.CP850))
+	}
+
+	@Test
+	fun windows1252MatchesTheJdkCharset() {
+		val upperHalf = String(ByteArray(128) { (0x80 + it).toByte() }, Charset.forName("windows-1252")).filter { it != '�' }
+
+		assertArrayEquals(upperHalf.toByteArray(Charset.forName("windows-1252")), encode(upperHalf, ZplCodePage.WINDOWS_1252))
+	}
+
+	@Test
+	fun ciCommandSwitchesCodePage() {
+		val bytes = encode("^FD€^FS^CI27^FD€^FS^CI13^FDÇ^FS^CI28^FD€^FS", ZplCodePage.UTF_8)
+
+		val expected = "^FD".ascii() + "€".toByteArray(Charsets.UTF_8) + "^FS^CI27^FD".ascii() + byteArrayOf(0x80.toByte()) +
+				"^FS^CI13^FD".ascii() + byteArrayOf(0x80.toByte()) + "^FS^CI28^FD".ascii() + "€".toByteArray(Charsets.UTF_8) + "^FS".ascii()
+		assertArrayEquals(expected, bytes)
+	}
+
+	@Test
+	fun unsupportedCiValueKeepsCodePage() {
+		assertArrayEquals("^CI99^FD".ascii() + byteArrayOf(0x80.toByte()) + "^FS".ascii(), encode("^CI99^FD€^FS", ZplCodePage.WINDOWS_1252))
+	}
+
+	@Test
+	fun unmappableCharactersBecomeQuestionMarks() {
+		assertArrayEquals("^FD??^FS".ascii(), encode("^FDé€^FS", ZplCodePage.ASCII))
+		assertArrayEquals("^FD?^FS".ascii(), encode("^FD€^FS", ZplCodePage.CP850))
+		assertArrayEquals("^FD?^FS".ascii(), encode("^FD\uD83D^FS", ZplCodePage.UTF_8))
+	}
+
+	@Test
+	fun flushesWhenTheBufferIsFull() {
+		val zpl = "^XA" + "^FDà€😀^FS".repeat(20) + "^XZ"
+		val connection = RecordingConnection()
+
+		ZplEncoder(bufferSize = 16).write(connection, zpl, ZplCodePage.UTF_8)
+
+		assertArrayEquals(zpl.toByteArray(Charsets.UTF_8), connection.bytes)
+		assertTrue(connection.writes.size > 1)
+		assertTrue(connection.writes.all { it in 1..16 })
+	}
+
+	@Test
+	fun bufferIsEmptiedBetweenJobs() {
+		val connection = RecordingConnection()
+		val encoder = ZplEncoder()
+
+		encoder.write(connection, "^XA^FDfirst^FS^XZ")
+		encoder.write(connection, "^XA^FDsecond^FS^XZ")
+
+		assertEquals(listOf(17, 18), connection.writes)
+		assertArrayEquals("^XA^FDfirst^FS^XZ^XA^FDsecond^FS^XZ".ascii(), connection.bytes)
+	}
+
+	@Test
+	fun encodeToByteArrayReturnsTheFinalCodePage() {
+		val (bytes, codePage) = ZplEncoder(bufferSize = 16).encodeToByteArray("^CI27^FD€^FS and some more text to flush", ZplCodePage.UTF_8)
+
+		assertEquals(ZplCodePage.WINDOWS_1252, codePage)
+		assertArrayEquals("^CI27^FD".ascii() + byteArrayOf(0x80.toByte()) + "^FS and some more text to flush".ascii(), bytes)
+	}
+
+	@Test
+	fun encodeMatchesWhatIsWritten() {
+		val zpl = "^XA^FD€^FS^CI27^FD€^FS^XZ"
+
+		assertArrayEquals(encode(zpl, ZplCodePage.UTF_8), ZplEncoder(bufferSize = 16).encode(zpl))
+	}
+
+	@Test
+	fun forConnectionReusesTheEncoder() {
+		val first = RecordingConnection()
+		val second = RecordingConnection()
+
+		assertSame(ZplEncoder.forConnection(first), ZplEncoder.forConnection(first))
+		assertNotSame(ZplEncoder.forConnection(first), ZplEncoder.forConnection(second))
+	}
+
+	private fun encode(zpl: String, codePage: ZplCodePage): ByteArray {
+		val connection = RecordingConnection()
+		ZplEncoder().write(connection, zpl, codePage)
+		return connection.bytes
+	}
+
+	private fun String.ascii(): ByteArray = toByteArray(Charsets.US_ASCII)
+}
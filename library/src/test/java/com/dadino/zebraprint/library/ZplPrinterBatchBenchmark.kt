@@ -0,0 +1,117 @@
+package com.dadino.zebraprint.library
+
+import com.zebra.sdk.comm.TcpConnection
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.Closeable
+import java.io.IOException
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Measures [ZplPrinter.printByteArrays] against a fake TCP printer listening on the loopback interface, comparing
+ * one write per label with labels coalesced into [ZebraPrint.DEFAULT_MAX_BATCH_BYTES] writes.
+ *
+ * The SDK connection flushes and pauses after every piece of each write, so a label smaller than a piece costs as
+ * much as a full one when written on its own.
+ */
+class ZplPrinterBatchBenchmark {
+
+	@Test(timeout = 60_000L)
+	fun coalescedBatchOutrunsOneWritePerLabel() {
+		val labels = List(LABELS) { label(it) }
+		FakeTcpPrinter().use { printer ->
+			val perLabel = printer.measure(labels, maxBatchBytes = 0)
+			val coalesced = printer.measure(labels, maxBatchBytes = ZebraPrint.DEFAULT_MAX_BATCH_BYTES)
+
+			println("One write per label: ${describe(perLabel)}")
+			println("Coalesced batch: ${describe(coalesced)}")
+			assertTrue("Coalesced batch took $coalesced ns, one write per label $perLabel ns", coalesced * 2 < perLabel)
+		}
+	}
+
+	/**
+	 * @return the nanoseconds taken to write every label, once the fake printer received all of them
+	 */
+	private fun FakeTcpPrinter.measure(labels: List<ByteArray>, maxBatchBytes: Int): Long {
+		val expected = received.get() + labels.sumOf { it.size }
+		val connection = TcpConnection(LOOPBACK_ADDRESS, port)
+		connection.open()
+		try {
+			var written = 0
+			val start = System.nanoTime()
+			runBlocking { ZplPrinter.printByteArrays(connection, labels, maxBatchBytes) { count -> written += count } }
+			awaitReceived(expected)
+			val elapsed = System.nanoTime() - start
+			assertEquals(labels.size, written)
+			return elapsed
+		} finally {
+			connection.close()
+		}
+	}
+
+	private fun describe(elapsedNanos: Long): String {
+		val labelsPerSecond = LABELS * 1_000_000_000.0 / elapsedNanos
+		return "${elapsedNanos / 1_000_000L} ms, ${Math.round(labelsPerSecond)} labels/s"
+	}
+
+	private fun label(index: Int): ByteArray {
+		val text = "^XA^FO50,50^A0N,40,40^FDShipment $index^FS^FO50,120^BCN,100,Y,N,N^FD${1_000_000 + index}^FS"
+		return text.padEnd(LABEL_SIZE - "^XZ".length, ' ').plus("^XZ").toByteArray()
+	}
+
+	/**
+	 * Accepts connections on a free loopback port and discards everything it receives, counting the bytes.
+	 */
+	private class FakeTcpPrinter : Closeable {
+		private val serverSocket = ServerSocket(0, 1, InetAddress.getByName(LOOPBACK_ADDRESS))
+		val port: Int = serverSocket.localPort
+		val received = AtomicLong()
+
+		init {
+			Thread({ accept() }, "fake-tcp-printer").apply {
+				isDaemon = true
+				start()
+			}
+		}
+
+		private fun accept() {
+			try {
+				while (serverSocket.isClosed.not()) {
+					serverSocket.accept().use { socket ->
+						val input = socket.getInputStream()
+						val buffer = ByteArray(8192)
+						while (true) {
+							val read = input.read(buffer)
+							if (read < 0) break
+							received.addAndGet(read.toLong())
+						}
+					}
+				}
+			} catch (ignored: IOException) {
+			}
+		}
+
+		fun awaitReceived(expected: Long) {
+			val deadline = System.currentTimeMillis() + RECEIVE_TIMEOUT_MILLIS
+			while (received.get() < expected) {
+				if (System.currentTimeMillis() > deadline) throw IOException("Fake printer received ${received.get()} of $expected bytes")
+				Thread.sleep(1L)
+			}
+		}
+
+		override fun close() {
+			serverSocket.close()
+		}
+	}
+
+	companion object {
+		private const val LOOPBACK_ADDRESS = "127.0.0.1"
+		private const val LABELS = 200
+		private const val LABEL_SIZE = 300
+		private const val RECEIVE_TIMEOUT_MILLIS = 5_000L
+	}
+}
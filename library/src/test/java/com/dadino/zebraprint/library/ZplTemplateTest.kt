@@ -0,0 +1,124 @@
+package com.dadino.zebraprint.library
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class ZplTemplateTest {
+
+	@Test
+	fun fieldsAreRenderedAsFieldData() {
+		val template = ZplTemplate.compile("label", "^XA^FO10,10^FN1^FS^FO10,50^FN12^FS^XZ")
+
+		assertEquals(listOf(1, 12), template.fieldNumbers)
+		assertEquals("^XA^FO10,10^FDfirst^FS^FO10,50^FDtwelfth^FS^XZ", render(template, fields = mapOf(1 to "first", 12 to "twelfth")))
+	}
+
+	@Test
+	fun promptsAreDropped() {
+		val template = ZplTemplate.compile("label", "^XA^FN1\"Customer name\"^FS^XZ")
+
+		assertEquals(listOf(1), template.fieldNumbers)
+		assertEquals("^XA^FDACME^FS^XZ", render(template, fields = mapOf(1 to "ACME")))
+	}
+
+	@Test
+	fun unterminatedPromptIsKeptAsText() {
+		val template = ZplTemplate.compile("label", "^XA^FN1\"Customer^FS^XZ")
+
+		assertEquals("^XA^FDACME\"Customer^FS^XZ", render(template, fields = mapOf(1 to "ACME")))
+	}
+
+	@Test
+	fun defaultValueIsUsedOnlyWhenTheFieldIsMissing() {
+		val template = ZplTemplate.compile("label", "^XA^FN1\"Name\"^FDnobody^FS^FN2^FDdefault^FS^XZ")
+
+		assertEquals("^XA^FDACME^FS^FDdefault^FS^XZ", render(template, fields = mapOf(1 to "ACME")))
+		assertEquals("^XA^FDnobody^FS^FDdefault^FS^XZ", render(template))
+	}
+
+	@Test
+	fun fieldWithoutDigitsIsKeptAsText() {
+		val template = ZplTemplate.compile("label", "^XA^FN^FDstatic^FS^XZ")
+
+		assertEquals(emptyList<Int>(), template.fieldNumbers)
+		assertEquals("^XA^FN^FDstatic^FS^XZ", render(template, fields = mapOf(1 to "ignored")))
+	}
+
+	@Test
+	fun namedPlaceholdersAreReplacedAsIs() {
+		val template = ZplTemplate.compile("label", "^XA^FO\${x},10^FD\${name}^FS^XZ")
+
+		assertEquals(listOf("x", "name"), template.names)
+		assertEquals("^XA^FO40,10^FDACME^FS^XZ", render(template, namedValues = mapOf("x" to "40", "name" to "ACME")))
+		assertEquals("^XA^FO,10^FD^FS^XZ", render(template))
+	}
+
+	@Test
+	fun emptyOrUnclosedPlaceholdersAreKeptAsText() {
+		val template = ZplTemplate.compile("label", "^XA^FD\${}^FS^FD\${name^FS^XZ")
+
+		assertEquals(emptyList<String>(), template.names)
+		assertEquals("^XA^FD\${}^FS^FD\${name^FS^XZ", render(template, namedValues = mapOf("name" to "ACME")))
+	}
+
+	@Test
+	fun eachSlotIsEncodedInItsCodePage() {
+		val template = ZplTemplate.compile("label", "^XA^FN1^FS^CI27^FN2^FS^CI13^FD\${name}^FS^XZ")
+		val connection = RecordingConnection()
+
+		template.render(connection, mapOf(1 to "€", 2 to "€"), mapOf("name" to "Ç"))
+
+		val expected = "^XA^FD".ascii() + "€".toByteArray(Charsets.UTF_8) + "^FS^CI27^FD".ascii() + byteArrayOf(0x80.toByte()) +
+				"^FS^CI13^FD".ascii() + byteArrayOf(0x80.toByte()) + "^FS^XZ".ascii()
+		assertArrayEquals(expected, connection.bytes)
+		assertEquals(ZplCodePage.UTF_8, template.fieldCodePage(1))
+		assertEquals(ZplCodePage.WINDOWS_1252, template.fieldCodePage(2))
+		assertNull(template.fieldCodePage(3))
+	}
+
+	@Test
+	fun initialCodePageAppliesUntilTheFirstCi() {
+		val template = ZplTemplate.compile("label", "^XA^FN1^FS^XZ", ZplCodePage.CP850)
+
+		assertEquals(ZplCodePage.CP850, template.initialCodePage)
+		assertEquals(ZplCodePage.CP850, template.fieldCodePage(1))
+	}
+
+	@Test
+	fun cacheRecompilesOnlyWhenSourceOrCodePageChange() {
+		val cache = ZplTemplateCache()
+		val template = cache.getOrCompile("label", "^XA^FN1^FS^XZ")
+
+		assertSame(template, cache.getOrCompile("label", "^XA^FN1^FS^XZ"))
+		val edited = cache.getOrCompile("label", "^XA^FN2^FS^XZ")
+		assertNotSame(template, edited)
+		assertSame(edited, cache["label"])
+		assertNotSame(edited, cache.getOrCompile("label", "^XA^FN2^FS^XZ", ZplCodePage.CP850))
+	}
+
+	@Test
+	fun cacheEvictsTheLeastRecentlyUsedTemplate() {
+		val cache = ZplTemplateCache(maxSize = 2)
+		cache.getOrCompile("first", "^XA^FDfirst^FS^XZ")
+		cache.getOrCompile("second", "^XA^FDsecond^FS^XZ")
+
+		cache["first"]
+		cache.getOrCompile("third", "^XA^FDthird^FS^XZ")
+
+		assertNull(cache["second"])
+		assertEquals("first", cache["first"]?.id)
+		assertEquals("third", cache["third"]?.id)
+	}
+
+	private fun render(template: ZplTemplate, fields: Map<Int, String> = emptyMap(), namedValues: Map<String, String> = emptyMap()): String {
+		val connection = RecordingConnection()
+		template.render(connection, fields, namedValues)
+		return String(connection.bytes, Charsets.UTF_8)
+	}
+
+	private fun String.ascii(): ByteArray = toByteArray(Charsets.US_ASCII)
+}
@@ -0,0 +1,85 @@
+package com.dadino.zebraprint.library.ble;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BluetoothLeChunkBuffersTest {
+
+	private static final int MTU = 182;
+
+	@Test
+	public void chunksCopyTheRequestedSlice() {
+		byte[] source = job(1_000);
+		BluetoothLeChunkBuffers buffers = new BluetoothLeChunkBuffers();
+
+		assertArrayEquals(Arrays.copyOfRange(source, 10, 10 + MTU), buffers.chunk(source, 10, MTU, MTU));
+		assertArrayEquals(Arrays.copyOfRange(source, 900, 950), buffers.chunk(source, 900, 50, MTU));
+	}
+
+	/**
+	 * A 500 KB job is split in thousands of chunks: only the full chunk and the tail buffers may be
+	 * allocated, and a second job of the same shape must not allocate at all.
+	 */
+	@Test
+	public void largeJobAllocatesOnlyTwoBuffers() {
+		byte[] source = job(500 * 1024);
+		BluetoothLeChunkBuffers buffers = new BluetoothLeChunkBuffers();
+
+		writeJob(buffers, source);
+		assertEquals(2L, buffers.getAllocations());
+
+		writeJob(buffers, source);
+		assertEquals(2L, buffers.getAllocations());
+	}
+
+	@Test
+	public void fullChunksShareOneBuffer() {
+		byte[] source = job(MTU * 3);
+		BluetoothLeChunkBuffers buffers = new BluetoothLeChunkBuffers();
+
+		byte[] first = buffers.chunk(source, 0, MTU, MTU);
+		byte[] second = buffers.chunk(source, MTU, MTU, MTU);
+
+		assertSame(first, second);
+		assertEquals(1L, buffers.getAllocations());
+	}
+
+	@Test
+	public void mtuChangeReallocates() {
+		byte[] source = job(MTU * 2);
+		BluetoothLeChunkBuffers buffers = new BluetoothLeChunkBuffers();
+
+		buffers.chunk(source, 0, MTU, MTU);
+		buffers.chunk(source, 0, 20, 20);
+
+		assertEquals(2L, buffers.getAllocations());
+	}
+
+	/**
+	 * Mirrors the chunk loop of {@link ZebraBluetoothLeSocket}, checking every chunk against the source.
+	 */
+	private static void writeJob(BluetoothLeChunkBuffers buffers, byte[] source) {
+		int offset = 0;
+		while (offset < source.length) {
+			int end = Math.min(offset + MTU, source.length);
+			byte[] chunk = buffers.chunk(source, offset, end - offset, MTU);
+			assertEquals(end - offset, chunk.length);
+			assertEquals(source[offset], chunk[0]);
+			assertEquals(source[end - 1], chunk[chunk.length - 1]);
+			offset = end;
+		}
+	}
+
+	private static byte[] job(int size) {
+		byte[] bytes = new byte[size];
+		for (int i = 0; i < size; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+		return bytes;
+	}
+}
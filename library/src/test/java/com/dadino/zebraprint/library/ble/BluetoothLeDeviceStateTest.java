@@ -0,0 +1,90 @@
+package com.dadino.zebraprint.library.ble;
+
+import org.junit.Test;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BluetoothLeDeviceStateTest {
+
+	private static final String FIRST_PRINTER = "00:11:22:33:44:55";
+	private static final String SECOND_PRINTER = "66:77:88:99:AA:BB";
+
+	@Test
+	public void sameAddressSharesState() {
+		assertSame(BluetoothLeDeviceState.forAddress(FIRST_PRINTER), BluetoothLeDeviceState.forAddress(FIRST_PRINTER));
+	}
+
+	@Test
+	public void differentAddressesDoNotShareLocks() {
+		BluetoothLeDeviceState first = BluetoothLeDeviceState.forAddress(FIRST_PRINTER);
+		BluetoothLeDeviceState second = BluetoothLeDeviceState.forAddress(SECOND_PRINTER);
+
+		assertNotSame(first.writeLock, second.writeLock);
+		assertNotSame(first.connectLock, second.connectLock);
+		assertNotSame(first.writeFlowControl, second.writeFlowControl);
+	}
+
+	/**
+	 * Two fake sockets stream to two printers the way {@link ZebraBluetoothLeSocket} does: each
+	 * one holds its printer's write lock and waits for its chunks to be acknowledged. Every round
+	 * meets on a barrier, which only opens if both writers are inside their lock at the same time.
+	 */
+	@Test(timeout = 10_000L)
+	public void writesToDifferentPrintersMakeProgressConcurrently() throws Exception {
+		int chunks = 50;
+		CyclicBarrier bothWriting = new CyclicBarrier(2);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread first = new Thread(new FakeSocketWriter(BluetoothLeDeviceState.forAddress(FIRST_PRINTER), bothWriting, chunks, failure));
+		Thread second = new Thread(new FakeSocketWriter(BluetoothLeDeviceState.forAddress(SECOND_PRINTER), bothWriting, chunks, failure));
+		first.start();
+		second.start();
+		first.join(TimeUnit.SECONDS.toMillis(5));
+		second.join(TimeUnit.SECONDS.toMillis(5));
+
+		assertFalse(first.isAlive());
+		assertFalse(second.isAlive());
+		assertNull(failure.get());
+		assertEquals(0, bothWriting.getNumberWaiting());
+	}
+
+	private static final class FakeSocketWriter implements Runnable {
+
+		private final BluetoothLeDeviceState state;
+		private final CyclicBarrier bothWriting;
+		private final int chunks;
+		private final AtomicReference<Throwable> failure;
+
+		FakeSocketWriter(BluetoothLeDeviceState state, CyclicBarrier bothWriting, int chunks, AtomicReference<Throwable> failure) {
+			this.state = state;
+			this.bothWriting = bothWriting;
+			this.chunks = chunks;
+			this.failure = failure;
+		}
+
+		public void run() {
+			try {
+				synchronized (this.state.writeLock) {
+					this.state.writeFlowControl.begin(1);
+					for (int i = 0; i < this.chunks; i++) {
+						this.state.writeFlowControl.acquire(1_000L);
+						// The other printer's writer must be holding its own lock right now
+						this.bothWriting.await(1, TimeUnit.SECONDS);
+						this.state.writeFlowControl.onChunkWritten();
+					}
+					this.state.writeFlowControl.drain(1_000L);
+				}
+			} catch (Throwable e) {
+				this.failure.compareAndSet(null, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.dadino.zebraprint.library.ble;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BluetoothLeReceiveBufferTest {
+
+	@Test
+	public void readsBytesInOrder() throws Exception {
+		BluetoothLeReceiveBuffer buffer = new BluetoothLeReceiveBuffer(4);
+		buffer.write(new byte[]{1, 2, 3}, 0, 3);
+		buffer.write(4);
+
+		assertEquals(4, buffer.available());
+		assertEquals(1, buffer.read(0L));
+		byte[] read = new byte[3];
+		assertEquals(3, buffer.read(read, 0, 3, 0L));
+		assertArrayEquals(new byte[]{2, 3, 4}, read);
+		assertEquals(0, buffer.available());
+	}
+
+	@Test
+	public void wrapsAroundTheRing() throws Exception {
+		BluetoothLeReceiveBuffer buffer = new BluetoothLeReceiveBuffer(4);
+		buffer.write(new byte[]{1, 2, 3}, 0, 3);
+		byte[] read = new byte[2];
+		buffer.read(read, 0, 2, 0L);
+
+		// Tail at index 3, so these three bytes wrap to the start of the ring
+		buffer.write(new byte[]{4, 5, 6}, 0, 3);
+
+		assertArrayEquals(new byte[]{3, 4, 5, 6}, buffer.toByteArray());
+		byte[] rest = new byte[4];
+		assertEquals(4, buffer.read(rest, 0, 4, 0L));
+		assertArrayEquals(new byte[]{3, 4, 5, 6}, rest);
+	}
+
+	@Test
+	public void growsKeepingWrappedData() throws Exception {
+		BluetoothLeReceiveBuffer buffer = new BluetoothLeReceiveBuffer(4);
+		buffer.write(new byte[]{1, 2, 3, 4}, 0, 4);
+		assertEquals(1, buffer.read(0L));
+		assertEquals(2, buffer.read(0L));
+
+		byte[] more = new byte[]{5, 6, 7, 8, 9, 10};
+		buffer.write(more, 0, more.length);
+
+		assertArrayEquals(new byte[]{3, 4, 5, 6, 7, 8, 9, 10}, buffer.toByteArray());
+		assertEquals(8, buffer.size());
+	}
+
+	@Test
+	public void readReturnsOnlyWhatIsAvailable() throws Exception {
+		BluetoothLeReceiveBuffer buffer = new BluetoothLeReceiveBuffer();
+		buffer.write(new byte[]{7, 8}, 0, 2);
+
+		byte[] read = new byte[10];
+		assertEquals(2, buffer.read(read, 0, 10, 0L));
+		assertArrayEquals(new byte[]{7, 8}, Arrays.copyOf(read, 2));
+	}
+
+	@Test
+	public void readTimesOutWhenEmpty() throws Exception {
+		BluetoothLeReceiveBuffer buffer = new BluetoothLeReceiveBuffer();
+		long start = System.currentTimeMillis();
+
+		assertEquals(-1, buffer.read(50L));
+		assertEquals(-1, buffer.read(new byte[4], 0, 4, 50L));
+		assertTrue(System.currentTimeMillis() - start >= 90L);
+	}
+
+	@Test(timeout = 5_000L)
+	public void readWakesUpOnNotification() throws Exception {
+		final BluetoothLeReceiveBuffer buffer = new BluetoothLeReceiveBuffer();
+		Thread notifier = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(50L);
+				} catch (InterruptedException ignored) {
+				}
+				buffer.write(new byte[]{42}, 0, 1);
+			}
+		});
+		notifier.start();
+
+		assertEquals(42, buffer.read(2_000L));
+	}
+
+	@Test
+	public void resetDropsData() throws Exception {
+		BluetoothLeReceiveBuffer buffer = new BluetoothLeReceiveBuffer();
+		buffer.write(new byte[]{1, 2, 3}, 0, 3);
+		buffer.reset();
+
+		assertEquals(0, buffer.available());
+		assertEquals(-1, buffer.read(0L));
+	}
+}
@@ -0,0 +1,161 @@
+package com.dadino.zebraprint.library.ble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BluetoothLeWriteFlowControlTest {
+
+	private static final int GATT_ERROR = 133;
+
+	@Test
+	public void windowBoundsChunksInFlight() throws IOException {
+		BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(3);
+		flowControl.acquire(100L);
+		flowControl.acquire(100L);
+		flowControl.acquire(100L);
+
+		try {
+			flowControl.acquire(50L);
+			fail("A fourth chunk fit in a window of three");
+		} catch (IOException expected) {
+		}
+
+		flowControl.onChunkWritten();
+		flowControl.acquire(100L);
+	}
+
+	@Test(timeout = 5_000L)
+	public void acknowledgementReleasesWaitingWriter() throws Exception {
+		final BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(1);
+		flowControl.acquire(100L);
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					flowControl.acquire(2_000L);
+					acquired.countDown();
+				} catch (IOException ignored) {
+				}
+			}
+		});
+		writer.start();
+
+		assertFalse(acquired.await(50L, TimeUnit.MILLISECONDS));
+		flowControl.onChunkWritten();
+		assertTrue(acquired.await(1L, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void drainWaitsForEveryChunk() throws IOException {
+		BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(4);
+		flowControl.acquire(100L);
+		flowControl.acquire(100L);
+		flowControl.onChunkWritten();
+
+		try {
+			flowControl.drain(50L);
+			fail("Drained with a chunk still in flight");
+		} catch (IOException expected) {
+		}
+
+		flowControl.onChunkWritten();
+		flowControl.drain(50L);
+	}
+
+	@Test
+	public void failedChunkFailsDrain() throws IOException {
+		BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(4);
+		flowControl.acquire(100L);
+		flowControl.acquire(100L);
+		flowControl.onChunkWritten();
+		flowControl.onChunkFailed(GATT_ERROR);
+
+		try {
+			flowControl.drain(100L);
+			fail("A failed chunk was counted as delivered");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains(String.valueOf(GATT_ERROR)));
+		}
+	}
+
+	@Test(timeout = 5_000L)
+	public void failedChunkWakesWaitingWriter() throws Exception {
+		final BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(1);
+		flowControl.acquire(100L);
+
+		final AtomicReference<IOException> failure = new AtomicReference<>();
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					flowControl.acquire(2_000L);
+				} catch (IOException e) {
+					failure.set(e);
+				}
+			}
+		});
+		writer.start();
+		Thread.sleep(50L);
+		flowControl.onChunkFailed(GATT_ERROR);
+		writer.join(1_000L);
+
+		assertNotNull(failure.get());
+	}
+
+	@Test
+	public void beginForgetsPreviousFailure() throws IOException {
+		BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(1);
+		flowControl.acquire(100L);
+		flowControl.onChunkFailed(GATT_ERROR);
+
+		flowControl.begin(1);
+		flowControl.acquire(100L);
+		flowControl.onChunkWritten();
+		flowControl.drain(100L);
+	}
+
+	@Test
+	public void awaitOtherCompletionWithoutOtherChunks() throws IOException {
+		BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(2);
+		flowControl.acquire(100L);
+
+		assertFalse(flowControl.awaitOtherCompletion(100L));
+	}
+
+	@Test(timeout = 5_000L)
+	public void awaitOtherCompletionWaitsForAcknowledgement() throws Exception {
+		final BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		flowControl.begin(2);
+		flowControl.acquire(100L);
+		flowControl.acquire(100L);
+
+		Thread gatt = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(50L);
+				} catch (InterruptedException ignored) {
+				}
+				flowControl.onChunkWritten();
+			}
+		});
+		gatt.start();
+
+		assertTrue(flowControl.awaitOtherCompletion(2_000L));
+	}
+}
@@ -0,0 +1,110 @@
+package com.dadino.zebraprint.library.ble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares acknowledged writes with write-without-response streaming, driving the same flow
+ * control and chunk loop as {@link ZebraBluetoothLeSocket} against a simulated GATT.
+ * <p>
+ * The simulated link has one connection event every {@link #CONNECTION_INTERVAL_MICROS}: an
+ * acknowledged write takes a whole event to be answered, while up to {@link #PACKETS_PER_EVENT}
+ * write-without-response chunks go out in a single event and are confirmed by the stack right away.
+ */
+public class BluetoothLeWriteModeBenchmark {
+
+	private static final int JOB_SIZE = 64 * 1024;
+	private static final int MTU = 182;
+	private static final long CONNECTION_INTERVAL_MICROS = 1_000L;
+	private static final int PACKETS_PER_EVENT = 6;
+	private static final long TIMEOUT_MILLIS = 10_000L;
+
+	@Test(timeout = 30_000L)
+	public void writeWithoutResponseOutrunsAcknowledgedWrites() throws Exception {
+		// Warm up both paths before measuring
+		this.writeJob(1, 1);
+		this.writeJob(BluetoothLeConnection.DEFAULT_WRITE_WINDOW_SIZE, BluetoothLeConnection.DEFAULT_CHECKPOINT_INTERVAL);
+
+		long acknowledged = this.writeJob(1, 1);
+		long withoutResponse = this.writeJob(BluetoothLeConnection.DEFAULT_WRITE_WINDOW_SIZE, BluetoothLeConnection.DEFAULT_CHECKPOINT_INTERVAL);
+
+		System.out.println("Acknowledged writes: " + describe(acknowledged));
+		System.out.println("Write without response: " + describe(withoutResponse));
+		assertTrue("Write without response took " + withoutResponse + " ns, acknowledged writes " + acknowledged + " ns", withoutResponse * 2 < acknowledged);
+	}
+
+	/**
+	 * @return the nanoseconds taken to write {@link #JOB_SIZE} bytes until the last chunk is confirmed
+	 */
+	private long writeJob(int windowSize, int checkpointInterval) throws Exception {
+		BluetoothLeWriteFlowControl flowControl = new BluetoothLeWriteFlowControl();
+		SimulatedGatt gatt = new SimulatedGatt(flowControl);
+		Thread gattThread = new Thread(gatt, "simulated-gatt");
+		gattThread.start();
+		try {
+			long start = System.nanoTime();
+			int chunks = (JOB_SIZE + MTU - 1) / MTU;
+			flowControl.begin(windowSize);
+			for (int i = 1; i <= chunks; i++) {
+				boolean checkpoint = i % checkpointInterval == 0;
+				flowControl.acquire(TIMEOUT_MILLIS);
+				gatt.writeCharacteristic(checkpoint);
+				if (checkpoint) {
+					flowControl.drain(TIMEOUT_MILLIS);
+				}
+			}
+			flowControl.drain(TIMEOUT_MILLIS);
+			return System.nanoTime() - start;
+		} finally {
+			gattThread.interrupt();
+			gattThread.join(TimeUnit.SECONDS.toMillis(1));
+		}
+	}
+
+	private static String describe(long elapsedNanos) {
+		return (elapsedNanos / 1_000_000L) + " ms, " + Math.round(JOB_SIZE * 1_000_000_000.0 / elapsedNanos / 1024.0) + " KiB/s";
+	}
+
+	private static final class SimulatedGatt implements Runnable {
+
+		private final BluetoothLeWriteFlowControl flowControl;
+		/**
+		 * Chunks handed to the stack, true for acknowledged writes.
+		 */
+		private final BlockingQueue<Boolean> queue = new LinkedBlockingQueue<>();
+
+		SimulatedGatt(BluetoothLeWriteFlowControl flowControl) {
+			this.flowControl = flowControl;
+		}
+
+		void writeCharacteristic(boolean acknowledged) throws IOException {
+			if (!this.queue.offer(acknowledged)) {
+				throw new IOException("Simulated GATT queue full");
+			}
+		}
+
+		public void run() {
+			while (!Thread.currentThread().isInterrupted()) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(CONNECTION_INTERVAL_MICROS));
+				for (int sent = 0; sent < PACKETS_PER_EVENT; sent++) {
+					Boolean acknowledged = this.queue.poll();
+					if (acknowledged == null) {
+						break;
+					}
+					this.flowControl.onChunkWritten();
+					if (acknowledged) {
+						// The write response takes the rest of the connection event
+						break;
+					}
+				}
+			}
+		}
+	}
+}
@@ -1,16 +1,31 @@
 package com.dadino.zebraprint.library.rx2
 
+import android.graphics.Bitmap
 import androidx.appcompat.app.AppCompatActivity
 import com.dadino.quickstart3.base.Optional
+import com.dadino.zebraprint.library.ConnectionPoolStats
+import com.dadino.zebraprint.library.DiscoveryMode
+import com.dadino.zebraprint.library.DiscoveryTimeBudgets
+import com.dadino.zebraprint.library.GraphicDithering
+import com.dadino.zebraprint.library.NetworkDiscoveryMode
+import com.dadino.zebraprint.library.PrintJobState
 import com.dadino.zebraprint.library.PrintResponse
+import com.dadino.zebraprint.library.PrintResult
 import com.dadino.zebraprint.library.Printer
+import com.dadino.zebraprint.library.PrinterRecoveryStats
 import com.dadino.zebraprint.library.ZebraPrint
+import com.dadino.zebraprint.library.ZplCodePage
+import com.dadino.zebraprint.library.ZplTemplate
 import io.reactivex.Completable
 import io.reactivex.Flowable
 import io.reactivex.Single
+import kotlinx.coroutines.reactive.asFlow
 import kotlinx.coroutines.rx2.rxCompletable
 import kotlinx.coroutines.rx2.rxFlowable
 import kotlinx.coroutines.rx2.rxSingle
+import java.io.File
+import java.io.InputStream
+import java.nio.ByteBuffer
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.EmptyCoroutineContext
 
@@ -51,6 +66,110 @@ class RxZebraPrint(private val coroutineContext: CoroutineContext = EmptyCorouti
 		zebraPrint.searchOnNetwork = searchOnNetwork
 	}
 
+	fun getDiscoveryMode(): DiscoveryMode {
+		return zebraPrint.discoveryMode
+	}
+
+	fun setDiscoveryMode(discoveryMode: DiscoveryMode) {
+		zebraPrint.discoveryMode = discoveryMode
+	}
+
+	fun getDiscoveryTimeBudgets(): DiscoveryTimeBudgets {
+		return zebraPrint.discoveryTimeBudgets
+	}
+
+	fun setDiscoveryTimeBudgets(discoveryTimeBudgets: DiscoveryTimeBudgets) {
+		zebraPrint.discoveryTimeBudgets = discoveryTimeBudgets
+	}
+
+	fun getNetworkDiscoveryMode(): NetworkDiscoveryMode {
+		return zebraPrint.networkDiscoveryMode
+	}
+
+	fun setNetworkDiscoveryMode(networkDiscoveryMode: NetworkDiscoveryMode) {
+		zebraPrint.networkDiscoveryMode = networkDiscoveryMode
+	}
+
+	fun getUseDiscoveryCache(): Boolean {
+		return zebraPrint.useDiscoveryCache
+	}
+
+	fun setUseDiscoveryCache(useDiscoveryCache: Boolean) {
+		zebraPrint.useDiscoveryCache = useDiscoveryCache
+	}
+
+	fun getMaxPooledConnections(): Int {
+		return zebraPrint.maxPooledConnections
+	}
+
+	fun setMaxPooledConnections(maxPooledConnections: Int) {
+		zebraPrint.maxPooledConnections = maxPooledConnections
+	}
+
+	fun getConnectionIdleTimeoutMillis(): Long {
+		return zebraPrint.connectionIdleTimeoutMillis
+	}
+
+	fun setConnectionIdleTimeoutMillis(connectionIdleTimeoutMillis: Long) {
+		zebraPrint.connectionIdleTimeoutMillis = connectionIdleTimeoutMillis
+	}
+
+	fun getStatusCacheTtlMillis(): Long {
+		return zebraPrint.statusCacheTtlMillis
+	}
+
+	fun setStatusCacheTtlMillis(statusCacheTtlMillis: Long) {
+		zebraPrint.statusCacheTtlMillis = statusCacheTtlMillis
+	}
+
+	fun getMaxBatchBytes(): Int {
+		return zebraPrint.maxBatchBytes
+	}
+
+	fun setMaxBatchBytes(maxBatchBytes: Int) {
+		zebraPrint.maxBatchBytes = maxBatchBytes
+	}
+
+	fun getCacheGraphicsOnPrinter(): Boolean {
+		return zebraPrint.cacheGraphicsOnPrinter
+	}
+
+	fun setCacheGraphicsOnPrinter(cacheGraphicsOnPrinter: Boolean) {
+		zebraPrint.cacheGraphicsOnPrinter = cacheGraphicsOnPrinter
+	}
+
+	fun getGraphicsFlashBudgetBytes(): Int {
+		return zebraPrint.graphicsFlashBudgetBytes
+	}
+
+	fun setGraphicsFlashBudgetBytes(graphicsFlashBudgetBytes: Int) {
+		zebraPrint.graphicsFlashBudgetBytes = graphicsFlashBudgetBytes
+	}
+
+	fun getStoredFormatDrive(): Char {
+		return zebraPrint.storedFormatDrive
+	}
+
+	fun setStoredFormatDrive(storedFormatDrive: Char) {
+		zebraPrint.storedFormatDrive = storedFormatDrive
+	}
+
+	fun getConnectionPoolStats(): ConnectionPoolStats {
+		return zebraPrint.connectionPoolStats
+	}
+
+	fun getQuickReacquireTimeoutMillis(): Long {
+		return zebraPrint.quickReacquireTimeoutMillis
+	}
+
+	fun setQuickReacquireTimeoutMillis(quickReacquireTimeoutMillis: Long) {
+		zebraPrint.quickReacquireTimeoutMillis = quickReacquireTimeoutMillis
+	}
+
+	fun getPrinterRecoveryStats(): PrinterRecoveryStats {
+		return zebraPrint.printerRecoveryStats
+	}
+
 	fun setActivity(activity: AppCompatActivity) {
 		zebraPrint.setActivity(activity)
 	}
@@ -67,12 +186,148 @@ class RxZebraPrint(private val coroutineContext: CoroutineContext = EmptyCorouti
 		}
 	}
 
+	fun registerTemplate(templateId: String, zpl: String, codePage: ZplCodePage = ZplCodePage.UTF_8): ZplTemplate {
+		return zebraPrint.registerTemplate(templateId = templateId, zpl = zpl, codePage = codePage)
+	}
+
+	fun printLocalTemplateWithSelectedPrinter(templateId: String, fields: Map<Int, String> = emptyMap(), namedValues: Map<String, String> = emptyMap(), failOnErrors: Boolean = false): Single<PrintResponse> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printLocalTemplateWithSelectedPrinter(templateId = templateId, fields = fields, namedValues = namedValues, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun printStoredTemplateWithSelectedPrinter(templateId: String, fields: Map<Int, String>, failOnErrors: Boolean = false): Single<PrintResponse> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printStoredTemplateWithSelectedPrinter(templateId = templateId, fields = fields, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun forgetStoredFormats(printerAddress: String? = null): Completable {
+		return rxCompletable(coroutineContext) {
+			zebraPrint.forgetStoredFormats(printerAddress)
+		}
+	}
+
+	fun printBitmapWithSelectedPrinter(bitmap: Bitmap, x: Int = 0, y: Int = 0, dithering: GraphicDithering = GraphicDithering.FLOYD_STEINBERG, failOnErrors: Boolean = false): Single<PrintResponse> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printBitmapWithSelectedPrinter(bitmap = bitmap, x = x, y = y, dithering = dithering, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun forgetCachedGraphics(printerAddress: String? = null): Completable {
+		return rxCompletable(coroutineContext) {
+			zebraPrint.forgetCachedGraphics(printerAddress)
+		}
+	}
+
 	fun printByteArrayWithSelectedPrinter(byteArray: ByteArray, failOnErrors: Boolean = false): Single<PrintResponse> {
 		return rxSingle(coroutineContext) {
 			zebraPrint.printByteArrayWithSelectedPrinter(byteArray = byteArray, failOnErrors = failOnErrors).getOrThrow()
 		}
 	}
 
+	fun printFileWithSelectedPrinter(file: File, failOnErrors: Boolean = false): Single<PrintResponse> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printFileWithSelectedPrinter(file = file, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun printStreamWithSelectedPrinter(openStream: () -> InputStream, failOnErrors: Boolean = false): Single<PrintResponse> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printStreamWithSelectedPrinter(openStream = openStream, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun printByteBufferWithSelectedPrinter(byteBuffer: ByteBuffer, failOnErrors: Boolean = false): Single<PrintResponse> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printByteBufferWithSelectedPrinter(byteBuffer = byteBuffer, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun printZplBatchWithSelectedPrinter(zplList: List<String>, failOnErrors: Boolean = false): Single<List<PrintResult>> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printZplBatchWithSelectedPrinter(zplList = zplList, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun printByteArrayBatchWithSelectedPrinter(byteArrays: List<ByteArray>, failOnErrors: Boolean = false): Single<List<PrintResult>> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.printByteArrayBatchWithSelectedPrinter(byteArrays = byteArrays, failOnErrors = failOnErrors).getOrThrow()
+		}
+	}
+
+	fun printZplBatchWithSelectedPrinter(zplFlowable: Flowable<String>, failOnErrors: Boolean = false): Flowable<PrintResult> {
+		return rxFlowable(coroutineContext) {
+			zebraPrint.printZplBatchWithSelectedPrinter(zplFlow = zplFlowable.asFlow(), failOnErrors = failOnErrors)
+				.collect { result ->
+					this.send(result)
+				}
+		}
+	}
+
+	fun printByteArrayBatchWithSelectedPrinter(byteArrayFlowable: Flowable<ByteArray>, failOnErrors: Boolean = false): Flowable<PrintResult> {
+		return rxFlowable(coroutineContext) {
+			zebraPrint.printByteArrayBatchWithSelectedPrinter(byteArrayFlow = byteArrayFlowable.asFlow(), failOnErrors = failOnErrors)
+				.collect { result ->
+					this.send(result)
+				}
+		}
+	}
+
+	fun enqueueZplWithSelectedPrinter(zpl: String): Single<String> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.enqueueZplWithSelectedPrinter(zpl = zpl)
+		}
+	}
+
+	fun enqueueTemplateWithSelectedPrinter(templateName: String, data: Map<Int, String>): Single<String> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.enqueueTemplateWithSelectedPrinter(templateName = templateName, data = data)
+		}
+	}
+
+	fun enqueueByteArrayWithSelectedPrinter(byteArray: ByteArray): Single<String> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.enqueueByteArrayWithSelectedPrinter(byteArray = byteArray)
+		}
+	}
+
+	fun getPrintJobStates(): Flowable<PrintJobState> {
+		return rxFlowable(coroutineContext) {
+			zebraPrint.printJobStates
+				.collect { state ->
+					this.send(state)
+				}
+		}
+	}
+
+	fun getPrintJobStates(jobId: String): Flowable<PrintJobState> {
+		return rxFlowable(coroutineContext) {
+			zebraPrint.printJobStates(jobId)
+				.collect { state ->
+					this.send(state)
+				}
+		}
+	}
+
+	fun cancelPrintJob(jobId: String): Single<Boolean> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.cancelPrintJob(jobId)
+		}
+	}
+
+	fun getPendingPrintJobIds(): Single<List<String>> {
+		return rxSingle(coroutineContext) {
+			zebraPrint.pendingPrintJobIds()
+		}
+	}
+
+	fun clearDiscoveryCache(): Completable {
+		return rxCompletable(coroutineContext) {
+			zebraPrint.clearDiscoveryCache()
+		}
+	}
+
 	fun searchPrinterAndSave(): Completable {
 		return rxCompletable(coroutineContext) {
 			zebraPrint.searchPrinterAndSave()